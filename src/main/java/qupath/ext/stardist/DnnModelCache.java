@@ -0,0 +1,311 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide cache of {@link DnnModelPool} instances, so that the same model file isn't
+ * loaded repeatedly when building many {@link StarDist2D} instances (e.g. when processing
+ * all images in a project).
+ * <p>
+ * Entries are reference-counted, and keyed by the model path, its last modified time,
+ * the layout and the pool size.
+ * By default, an entry is closed as soon as it is no longer used by any {@link StarDist2D}.
+ * Optionally, up to {@link #getMaxIdleModels()} unused entries can be retained as 'idle' so that
+ * they can be reused by the next instance; the least recently used idle entries are closed first.
+ *
+ * @since v0.6.0
+ */
+class DnnModelCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(DnnModelCache.class);
+
+	private static final DnnModelCache INSTANCE = new DnnModelCache();
+
+	private final Map<Key, Entry> entries = new HashMap<>();
+	private final Map<DnnModelPool, Entry> entriesByPool = new IdentityHashMap<>();
+	private final LinkedHashMap<Key, Entry> idle = new LinkedHashMap<>(16, 0.75f, true);
+
+	private int maxIdleModels = 0;
+
+	/**
+	 * Loader used to build a model pool when it isn't already cached.
+	 */
+	@FunctionalInterface
+	static interface PoolLoader {
+
+		/**
+		 * Load the model pool.
+		 * @return the pool, or null if no model could be loaded
+		 * @throws Exception
+		 */
+		DnnModelPool load() throws Exception;
+
+	}
+
+	/**
+	 * Create a new cache.
+	 * Generally {@link #getInstance()} should be used instead, so that models are shared.
+	 */
+	DnnModelCache() {}
+
+	/**
+	 * Get the shared cache instance.
+	 * @return
+	 */
+	static DnnModelCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Get the maximum number of models to retain after they are no longer used.
+	 * @return
+	 */
+	synchronized int getMaxIdleModels() {
+		return maxIdleModels;
+	}
+
+	/**
+	 * Set the maximum number of models to retain after they are no longer used.
+	 * The default is 0, which means that models are closed as soon as the last {@link StarDist2D}
+	 * using them is closed.
+	 * @param maxIdleModels
+	 */
+	void setMaxIdleModels(int maxIdleModels) {
+		List<Entry> evicted;
+		synchronized (this) {
+			this.maxIdleModels = Math.max(0, maxIdleModels);
+			evicted = evictIdle();
+		}
+		closeAll(evicted);
+	}
+
+	/**
+	 * Get a model pool for the specified file, loading it only if it is not already cached.
+	 * Each call must be balanced by a call to {@link #release(DnnModelPool)}.
+	 * @param file the model file
+	 * @param layout the model layout
+	 * @param poolSize the pool size
+	 * @param loader loader to build the pool, if needed
+	 * @return the model pool, or null if no model could be loaded
+	 * @throws Exception if an exception occurs loading the model
+	 */
+	DnnModelPool acquire(File file, String layout, int poolSize, PoolLoader loader) throws Exception {
+		var key = new Key(file.toPath(), layout, poolSize);
+		Entry entry;
+		boolean doLoad = false;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry(key);
+				entries.put(key, entry);
+				doLoad = true;
+			} else {
+				logger.debug("Reusing cached model for {}", key.path);
+			}
+			entry.refCount++;
+			idle.remove(key);
+		}
+
+		if (doLoad) {
+			try {
+				var pool = loader.load();
+				if (pool != null) {
+					synchronized (this) {
+						entriesByPool.put(pool, entry);
+					}
+				}
+				entry.pool.complete(pool);
+			} catch (Exception e) {
+				entry.pool.completeExceptionally(e);
+			}
+		}
+
+		try {
+			var pool = entry.pool.get();
+			if (pool == null)
+				discard(entry);
+			return pool;
+		} catch (ExecutionException e) {
+			discard(entry);
+			var cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception)cause;
+			throw e;
+		}
+	}
+
+	/**
+	 * Release a model pool that was returned by {@link #acquire(File, String, int, PoolLoader)}.
+	 * @param pool
+	 * @return true if the pool was found in the cache, false otherwise
+	 */
+	boolean release(DnnModelPool pool) {
+		List<Entry> evicted;
+		synchronized (this) {
+			var entry = entriesByPool.get(pool);
+			if (entry == null)
+				return false;
+			entry.refCount--;
+			if (entry.refCount > 0)
+				return true;
+			idle.put(entry.key, entry);
+			evicted = evictIdle();
+		}
+		closeAll(evicted);
+		return true;
+	}
+
+	/**
+	 * Close all cached models that are not currently in use.
+	 */
+	void clear() {
+		List<Entry> evicted;
+		synchronized (this) {
+			evicted = new ArrayList<>(idle.values());
+			idle.clear();
+			for (var entry : evicted)
+				remove(entry);
+		}
+		closeAll(evicted);
+	}
+
+	private synchronized void discard(Entry entry) {
+		entry.refCount--;
+		if (entry.refCount <= 0)
+			remove(entry);
+	}
+
+	private synchronized void remove(Entry entry) {
+		entries.remove(entry.key, entry);
+		var pool = entry.pool.getNow(null);
+		if (pool != null)
+			entriesByPool.remove(pool);
+	}
+
+	private synchronized List<Entry> evictIdle() {
+		var evicted = new ArrayList<Entry>();
+		var iter = idle.values().iterator();
+		while (idle.size() - evicted.size() > maxIdleModels && iter.hasNext()) {
+			var entry = iter.next();
+			evicted.add(entry);
+			iter.remove();
+		}
+		for (var entry : evicted)
+			remove(entry);
+		return evicted;
+	}
+
+	private static void closeAll(List<Entry> entries) {
+		for (var entry : entries) {
+			var pool = entry.pool.getNow(null);
+			if (pool == null)
+				continue;
+			try {
+				logger.debug("Closing cached model for {}", entry.key.path);
+				pool.close();
+			} catch (Exception e) {
+				logger.warn("Exception closing cached model: {}", e.getMessage(), e);
+			}
+		}
+	}
+
+
+	private static class Entry {
+
+		private final Key key;
+		private final CompletableFuture<DnnModelPool> pool = new CompletableFuture<>();
+		private int refCount = 0;
+
+		Entry(Key key) {
+			this.key = key;
+		}
+
+	}
+
+
+	private static class Key {
+
+		private final Path path;
+		private final long lastModified;
+		private final String layout;
+		private final int poolSize;
+
+		Key(Path path, String layout, int poolSize) {
+			this.path = path.toAbsolutePath().normalize();
+			this.lastModified = getLastModified(this.path);
+			this.layout = layout;
+			this.poolSize = poolSize;
+		}
+
+		/**
+		 * Get the last modified time of a file, or the most recent time of any file
+		 * within a directory (e.g. for a saved model).
+		 * @param path
+		 * @return
+		 */
+		private static long getLastModified(Path path) {
+			try {
+				if (Files.isDirectory(path)) {
+					try (var stream = Files.walk(path, 3)) {
+						return stream.mapToLong(p -> p.toFile().lastModified()).max().orElse(0L);
+					}
+				}
+				return Files.getLastModifiedTime(path).toMillis();
+			} catch (IOException e) {
+				logger.debug("Unable to get last modified time for {}", path, e);
+				return 0L;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(path, lastModified, layout, poolSize);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			var other = (Key)obj;
+			return lastModified == other.lastModified &&
+					poolSize == other.poolSize &&
+					Objects.equals(path, other.path) &&
+					Objects.equals(layout, other.layout);
+		}
+
+	}
+
+}
@@ -0,0 +1,185 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.opencv.dnn.DnnModel;
+import qupath.opencv.dnn.DnnModelParams;
+import qupath.opencv.dnn.DnnModels;
+
+/**
+ * A pool of {@link DnnModel} instances that can be leased for prediction.
+ * <p>
+ * Some backends aren't thread-safe, or serialize prediction internally, or hold scratch buffers
+ * per instance.
+ * Building several independent instances from the same {@link DnnModelParams}, and ensuring
+ * that each is only used by one thread at a time, makes concurrent prediction safe and predictable.
+ * <p>
+ * Alternatively, a pool can wrap a single model that is shared by all threads,
+ * in which case leasing never blocks.
+ *
+ * @since v0.6.0
+ */
+class DnnModelPool implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(DnnModelPool.class);
+
+	private final List<DnnModel> models;
+	private final BlockingQueue<DnnModel> available;
+
+	private DnnModelPool(List<DnnModel> models, boolean exclusive) {
+		this.models = Collections.unmodifiableList(new ArrayList<>(models));
+		if (exclusive) {
+			this.available = new ArrayBlockingQueue<>(models.size());
+			this.available.addAll(models);
+		} else
+			this.available = null;
+	}
+
+	/**
+	 * Create a pool containing a single model that is shared between all threads.
+	 * @param dnn
+	 * @return
+	 */
+	static DnnModelPool shared(DnnModel dnn) {
+		return new DnnModelPool(Collections.singletonList(dnn), false);
+	}
+
+	/**
+	 * Create a pool where each model can only be leased by one thread at a time.
+	 * @param models
+	 * @return
+	 */
+	static DnnModelPool exclusive(List<DnnModel> models) {
+		if (models.isEmpty())
+			throw new IllegalArgumentException("Model pool must contain at least one model");
+		return new DnnModelPool(models, true);
+	}
+
+	/**
+	 * Build a pool of models from the same parameters.
+	 * @param params the parameters used to build each model
+	 * @param size the number of independent models to build; if &le; 0, a single shared model is built
+	 * @return the pool, or null if a model could not be built
+	 * @throws Exception if an exception occurs building a model
+	 */
+	static DnnModelPool build(DnnModelParams params, int size) throws Exception {
+		if (size <= 0) {
+			var dnn = DnnModels.buildModel(params);
+			return dnn == null ? null : shared(dnn);
+		}
+		var models = new ArrayList<DnnModel>();
+		try {
+			for (int i = 0; i < size; i++) {
+				var dnn = DnnModels.buildModel(params);
+				if (dnn == null) {
+					closeAll(models);
+					return null;
+				}
+				models.add(dnn);
+			}
+		} catch (Exception e) {
+			closeAll(models);
+			throw e;
+		}
+		logger.debug("Built model pool with {} instances", size);
+		return exclusive(models);
+	}
+
+	/**
+	 * Lease a model for prediction, waiting if necessary until one is available.
+	 * The model must be returned with {@link #release(DnnModel)} when no longer needed.
+	 * @return
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	DnnModel acquire() throws InterruptedException {
+		if (available == null)
+			return models.get(0);
+		return available.take();
+	}
+
+	/**
+	 * Return a model that was leased with {@link #acquire()}.
+	 * @param dnn
+	 */
+	void release(DnnModel dnn) {
+		if (available != null && dnn != null)
+			available.add(dnn);
+	}
+
+	/**
+	 * Get the number of models in the pool.
+	 * @return
+	 */
+	int size() {
+		return models.size();
+	}
+
+	/**
+	 * Query whether each model can be used by only one thread at a time.
+	 * @return
+	 */
+	boolean isExclusive() {
+		return available != null;
+	}
+
+	/**
+	 * Get the first model in the pool.
+	 * This is mostly useful for logging.
+	 * @return
+	 */
+	DnnModel getModel() {
+		return models.get(0);
+	}
+
+	/**
+	 * Close all the models in the pool, if they are {@link Closeable} or {@link AutoCloseable}.
+	 */
+	@Override
+	public void close() throws Exception {
+		closeAll(models);
+	}
+
+	private static void closeAll(List<DnnModel> models) throws Exception {
+		Exception exception = null;
+		for (var dnn : models) {
+			try {
+				if (dnn instanceof Closeable) {
+					((Closeable) dnn).close();
+				} else if (dnn instanceof AutoCloseable)
+					((AutoCloseable) dnn).close();
+			} catch (Exception e) {
+				if (exception == null)
+					exception = e;
+				else
+					exception.addSuppressed(e);
+			}
+		}
+		if (exception != null)
+			throw exception;
+	}
+
+}
@@ -0,0 +1,269 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import java.util.Arrays;
+
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * A spatial index for envelopes, using a uniform grid of square cells.
+ * <p>
+ * This works well when the envelopes have similar sizes (e.g. nuclei), and the cell size is
+ * comparable to their size. Unlike an STRtree, items can be added at any time, and queries don't
+ * require any allocation.
+ * <p>
+ * Items are identified by integer ids, assigned in the order they are inserted.
+ * Only cells containing at least one item use any memory, so the grid does not need to be bounded.
+ * Queries are thread-safe, provided that no items are inserted at the same time.
+ *
+ * @since v0.6.0
+ */
+class EnvelopeGrid {
+
+	private static final int EMPTY = -1;
+
+	private final double cellSize;
+
+	// Envelopes for each item
+	private double[] minX = new double[64];
+	private double[] minY = new double[64];
+	private double[] maxX = new double[64];
+	private double[] maxY = new double[64];
+	private int nItems = 0;
+
+	// Hash table from cell keys to bucket indices, using open addressing
+	private long[] keys = new long[64];
+	private int[] slots = new int[64];
+	private int nBuckets = 0;
+
+	// Item ids for each bucket
+	private int[][] buckets = new int[32][];
+	private int[] bucketSizes = new int[32];
+
+	/**
+	 * Create an empty grid.
+	 * @param cellSize width and height of each cell; should be similar to the size of the envelopes
+	 */
+	EnvelopeGrid(double cellSize) {
+		if (!(cellSize > 0) || !Double.isFinite(cellSize))
+			throw new IllegalArgumentException("Cell size must be finite and > 0, but was " + cellSize);
+		this.cellSize = cellSize;
+		Arrays.fill(slots, EMPTY);
+	}
+
+	/**
+	 * Get the number of items in the grid.
+	 * @return
+	 */
+	int size() {
+		return nItems;
+	}
+
+	/**
+	 * Add an envelope to the grid.
+	 * @param envelope
+	 * @return the id of the new item
+	 */
+	int insert(Envelope envelope) {
+		return insert(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY());
+	}
+
+	/**
+	 * Add an envelope to the grid.
+	 * @param x1 minimum x-coordinate
+	 * @param y1 minimum y-coordinate
+	 * @param x2 maximum x-coordinate
+	 * @param y2 maximum y-coordinate
+	 * @return the id of the new item
+	 */
+	int insert(double x1, double y1, double x2, double y2) {
+		int id = nItems;
+		if (id == minX.length) {
+			int n = id * 2;
+			minX = Arrays.copyOf(minX, n);
+			minY = Arrays.copyOf(minY, n);
+			maxX = Arrays.copyOf(maxX, n);
+			maxY = Arrays.copyOf(maxY, n);
+		}
+		minX[id] = x1;
+		minY[id] = y1;
+		maxX[id] = x2;
+		maxY[id] = y2;
+		nItems++;
+
+		int cx2 = cell(x2);
+		int cy2 = cell(y2);
+		for (int cy = cell(y1); cy <= cy2; cy++) {
+			for (int cx = cell(x1); cx <= cx2; cx++) {
+				int b = getOrCreateBucket(key(cx, cy));
+				int n = bucketSizes[b];
+				var bucket = buckets[b];
+				if (n == bucket.length)
+					buckets[b] = bucket = Arrays.copyOf(bucket, n * 2);
+				bucket[n] = id;
+				bucketSizes[b] = n + 1;
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Find all items with envelopes that intersect the query envelope.
+	 * Each item is returned once, and its envelope is guaranteed to intersect.
+	 * @param envelope the query envelope
+	 * @param results object to store the ids of the items found; any previous contents are removed
+	 */
+	void query(Envelope envelope, Results results) {
+		query(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY(), results);
+	}
+
+	/**
+	 * Find all items with envelopes that intersect the query envelope.
+	 * Each item is returned once, and its envelope is guaranteed to intersect.
+	 * @param x1 minimum x-coordinate
+	 * @param y1 minimum y-coordinate
+	 * @param x2 maximum x-coordinate
+	 * @param y2 maximum y-coordinate
+	 * @param results object to store the ids of the items found; any previous contents are removed
+	 */
+	void query(double x1, double y1, double x2, double y2, Results results) {
+		results.size = 0;
+		int qx1 = cell(x1);
+		int qy1 = cell(y1);
+		int qx2 = cell(x2);
+		int qy2 = cell(y2);
+		for (int cy = qy1; cy <= qy2; cy++) {
+			for (int cx = qx1; cx <= qx2; cx++) {
+				int b = getBucket(key(cx, cy));
+				if (b == EMPTY)
+					continue;
+				var bucket = buckets[b];
+				int n = bucketSizes[b];
+				for (int i = 0; i < n; i++) {
+					int id = bucket[i];
+					if (minX[id] > x2 || maxX[id] < x1 || minY[id] > y2 || maxY[id] < y1)
+						continue;
+					// Items can be in several cells - only report them from the first one the query shares
+					if (cx != Math.max(qx1, cell(minX[id])) || cy != Math.max(qy1, cell(minY[id])))
+						continue;
+					results.add(id);
+				}
+			}
+		}
+	}
+
+	private int cell(double v) {
+		return (int)Math.floor(v / cellSize);
+	}
+
+	private static long key(int cx, int cy) {
+		return ((long)cy << 32) | (cx & 0xFFFFFFFFL);
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h >>> 32) & (keys.length - 1);
+	}
+
+	private int getBucket(long key) {
+		int mask = keys.length - 1;
+		for (int s = slot(key); ; s = (s + 1) & mask) {
+			int b = slots[s];
+			if (b == EMPTY || keys[s] == key)
+				return b;
+		}
+	}
+
+	private int getOrCreateBucket(long key) {
+		int mask = keys.length - 1;
+		int s = slot(key);
+		for (; ; s = (s + 1) & mask) {
+			int b = slots[s];
+			if (b == EMPTY)
+				break;
+			if (keys[s] == key)
+				return b;
+		}
+		int b = nBuckets++;
+		if (b == buckets.length) {
+			buckets = Arrays.copyOf(buckets, b * 2);
+			bucketSizes = Arrays.copyOf(bucketSizes, b * 2);
+		}
+		buckets[b] = new int[4];
+		keys[s] = key;
+		slots[s] = b;
+		// Keep the table at most half full
+		if (nBuckets * 2 > keys.length)
+			rehash();
+		return b;
+	}
+
+	private void rehash() {
+		var oldKeys = keys;
+		var oldSlots = slots;
+		keys = new long[oldKeys.length * 2];
+		slots = new int[oldSlots.length * 2];
+		Arrays.fill(slots, EMPTY);
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldSlots[i] == EMPTY)
+				continue;
+			int s = slot(oldKeys[i]);
+			while (slots[s] != EMPTY)
+				s = (s + 1) & mask;
+			keys[s] = oldKeys[i];
+			slots[s] = oldSlots[i];
+		}
+	}
+
+
+	/**
+	 * Reusable container for the ids found by a query.
+	 * Each thread should use its own instance.
+	 */
+	static class Results {
+
+		private int[] ids = new int[16];
+		private int size = 0;
+
+		/**
+		 * Get the number of ids.
+		 * @return
+		 */
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Get an id.
+		 * @param i index, which should be &lt; {@link #size()}
+		 * @return
+		 */
+		int get(int i) {
+			return ids[i];
+		}
+
+		private void add(int id) {
+			if (size == ids.length)
+				ids = Arrays.copyOf(ids, size * 2);
+			ids[size++] = id;
+		}
+
+	}
+
+}
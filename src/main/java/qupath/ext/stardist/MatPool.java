@@ -0,0 +1,143 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of reusable {@link Mat} buffers, so that tiles with the same size and type
+ * don't need to allocate new native memory each time.
+ * <p>
+ * Buffers are created with a retained reference, so that they may be passed between threads
+ * and outlive any {@link org.bytedeco.javacpp.PointerScope}.
+ * When released, they are returned to the pool and reused by the next request with a matching
+ * size and type.
+ * All pooled buffers are deallocated when the pool is closed.
+ *
+ * @since v0.6.0
+ */
+class MatPool implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(MatPool.class);
+
+	private final Map<Key, ArrayDeque<Mat>> available = new HashMap<>();
+	private final Set<Mat> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	private boolean closed = false;
+	private int nCreated = 0;
+	private int nReused = 0;
+
+	/**
+	 * Get a buffer with the specified size and type.
+	 * The contents of the buffer are undefined.
+	 * It should be returned to the pool with {@link #release(Mat)} when no longer needed.
+	 * @param rows number of rows
+	 * @param cols number of columns
+	 * @param type OpenCV type, including the number of channels
+	 * @return
+	 */
+	synchronized Mat acquire(int rows, int cols, int type) {
+		var queue = available.get(new Key(rows, cols, type));
+		var mat = queue == null ? null : queue.poll();
+		if (mat != null) {
+			nReused++;
+			return mat;
+		}
+		mat = new Mat(rows, cols, type);
+		mat.retainReference();
+		if (!closed)
+			owned.add(mat);
+		nCreated++;
+		return mat;
+	}
+
+	/**
+	 * Release a buffer.
+	 * If the buffer was created by this pool, it is retained for reuse; otherwise, its reference is released.
+	 * @param mat
+	 */
+	synchronized void release(Mat mat) {
+		if (mat == null)
+			return;
+		if (closed || !owned.contains(mat)) {
+			owned.remove(mat);
+			mat.releaseReference();
+			return;
+		}
+		available.computeIfAbsent(new Key(mat.rows(), mat.cols(), mat.type()), k -> new ArrayDeque<>()).add(mat);
+	}
+
+	/**
+	 * Deallocate all buffers currently in the pool.
+	 * Any buffers that are still in use will be deallocated when they are released.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		for (var queue : available.values()) {
+			for (var mat : queue) {
+				owned.remove(mat);
+				mat.releaseReference();
+			}
+		}
+		available.clear();
+		logger.debug("Closing buffer pool ({} created, {} reused)", nCreated, nReused);
+	}
+
+
+	private static class Key {
+
+		private final int rows;
+		private final int cols;
+		private final int type;
+
+		Key(int rows, int cols, int type) {
+			this.rows = rows;
+			this.cols = cols;
+			this.type = type;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(rows, cols, type);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			var other = (Key)obj;
+			return rows == other.rows && cols == other.cols && type == other.type;
+		}
+
+	}
+
+}
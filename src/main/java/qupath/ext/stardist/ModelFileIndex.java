@@ -0,0 +1,157 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the files within a directory (usually the QuPath user directory), used to find
+ * model files by name without walking the full directory tree on every request.
+ * <p>
+ * The index is rebuilt whenever it might be out of date.
+ * This is checked using the last modified times of the root directory, and of any directories
+ * named 'stardist' or 'models' (where models are expected to be found).
+ * If a name isn't found at all, the index is also rebuilt once in case the file was added elsewhere;
+ * if it still isn't found, the name isn't searched for again until one of the watched directories changes.
+ *
+ * @since v0.6.0
+ */
+class ModelFileIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(ModelFileIndex.class);
+
+	private static final Set<String> PREFERRED_DIR_NAMES = Set.of("stardist", "models");
+
+	/**
+	 * Comparator to sort candidate files, giving priority to those in a 'stardist' directory,
+	 * then a 'models' directory, then using the path.
+	 */
+	private static final Comparator<Path> PREFERENCE = Comparator
+			.comparingInt((Path p) -> "stardist".equalsIgnoreCase(parentDirName(p)) ? -1 : 0)
+			.thenComparing((Path p) -> "models".equalsIgnoreCase(parentDirName(p)) ? -1 : 1)
+			.thenComparing(p -> p.toString());
+
+	private static final Map<Path, ModelFileIndex> INDEXES = new HashMap<>();
+
+	private final Path root;
+
+	private Map<String, List<Path>> pathsByName = Collections.emptyMap();
+	private Map<Path, Long> watchedDirs = Collections.emptyMap();
+	private final Set<String> missingNames = new HashSet<>();
+
+	private ModelFileIndex(Path root) {
+		this.root = root;
+	}
+
+	/**
+	 * Find all files within a directory with the specified name.
+	 * @param root the root directory to search
+	 * @param name the file name
+	 * @return a list of matching paths, in order of preference; this is empty if no files are found
+	 * @throws IOException if the directory could not be indexed
+	 */
+	static List<Path> findFiles(Path root, String name) throws IOException {
+		ModelFileIndex index;
+		synchronized (INDEXES) {
+			index = INDEXES.computeIfAbsent(root.toAbsolutePath().normalize(), ModelFileIndex::new);
+		}
+		return index.find(name);
+	}
+
+	private synchronized List<Path> find(String name) throws IOException {
+		boolean rebuilt = false;
+		if (!isValid()) {
+			missingNames.clear();
+			rebuild();
+			rebuilt = true;
+		}
+		var paths = existing(pathsByName.getOrDefault(name, Collections.emptyList()));
+		if (paths.isEmpty() && !rebuilt && !missingNames.contains(name)) {
+			rebuild();
+			paths = existing(pathsByName.getOrDefault(name, Collections.emptyList()));
+		}
+		// Avoid walking the directory again for the same name until something changes
+		if (paths.isEmpty())
+			missingNames.add(name);
+		return paths;
+	}
+
+	private static List<Path> existing(List<Path> paths) {
+		return paths.stream().filter(p -> Files.exists(p)).toList();
+	}
+
+	/**
+	 * Check whether any watched directory has been modified since the index was built.
+	 * @return
+	 */
+	private boolean isValid() {
+		if (watchedDirs.isEmpty())
+			return false;
+		for (var entry : watchedDirs.entrySet()) {
+			if (lastModified(entry.getKey()) != entry.getValue())
+				return false;
+		}
+		return true;
+	}
+
+	private void rebuild() throws IOException {
+		long startTime = System.currentTimeMillis();
+		var map = new HashMap<String, List<Path>>();
+		var dirs = new HashMap<Path, Long>();
+		dirs.put(root, lastModified(root));
+		try (var stream = Files.walk(root)) {
+			stream.forEach(p -> {
+				if (p.equals(root))
+					return;
+				var name = p.getFileName().toString();
+				map.computeIfAbsent(name, n -> new ArrayList<>()).add(p);
+				if (PREFERRED_DIR_NAMES.contains(name.toLowerCase()) && Files.isDirectory(p))
+					dirs.put(p, lastModified(p));
+			});
+		}
+		// Sort candidates in order of preference
+		for (var list : map.values())
+			list.sort(PREFERENCE);
+		pathsByName = map;
+		watchedDirs = dirs;
+		logger.debug("Indexed {} file names in {} ms", map.size(), System.currentTimeMillis() - startTime);
+	}
+
+	private static long lastModified(Path path) {
+		return path.toFile().lastModified();
+	}
+
+	private static String parentDirName(Path path) {
+		if (path == null || path.getParent() == null)
+			return null;
+		return path.getParent().getFileName().toString();
+	}
+
+}
@@ -0,0 +1,427 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.ThreadTools;
+
+/**
+ * A simple staged pipeline for processing items concurrently.
+ * <p>
+ * Each stage runs on its own threads, and consecutive stages are connected by bounded queues.
+ * This means that slow stages (e.g. reading pixels) can overlap with other stages (e.g. prediction),
+ * while limiting the number of items held in memory at any one time.
+ * <p>
+ * Stage functions may return null to drop an item, in which case it is not passed to later stages.
+ * If any stage throws an exception, remaining items are discarded and the exception is rethrown
+ * by {@link #process(Collection)}.
+ * <p>
+ * Items that have entered the pipeline but will not be returned (e.g. because of an exception 
+ * or interruption) are passed to an optional discard function, so that any resources they hold 
+ * can be released. This may be called for an item that was partly processed by a stage that failed, 
+ * so it should be safe to call more than once.
+ *
+ * @param <T> type of the items being processed
+ * @since v0.6.0
+ */
+class Pipeline<T> {
+
+	private static final Logger logger = LoggerFactory.getLogger(Pipeline.class);
+
+	/**
+	 * Marker to indicate that no more items will be added to a queue.
+	 */
+	private static final Object END = new Object();
+
+	private final String name;
+	private final Consumer<T> discard;
+	private final List<Stage<T>> stages = new ArrayList<>();
+
+	/**
+	 * Create a new pipeline.
+	 * @param name base name, used for the threads of each stage
+	 */
+	Pipeline(String name) {
+		this(name, null);
+	}
+
+	/**
+	 * Create a new pipeline, with a function to release the resources of any items that are discarded.
+	 * @param name base name, used for the threads of each stage
+	 * @param discard function called for every item that is discarded; may be null
+	 */
+	Pipeline(String name, Consumer<T> discard) {
+		this.name = name;
+		this.discard = discard;
+	}
+
+	/**
+	 * Add a stage that processes items one at a time.
+	 * @param name name of the stage
+	 * @param nThreads number of threads used for the stage
+	 * @param queueCapacity maximum number of items waiting for the stage; if &le; 0, a default based upon the number of threads is used
+	 * @param fun function to apply to each item; may return null to drop the item
+	 * @return this pipeline
+	 */
+	Pipeline<T> addStage(String name, int nThreads, int queueCapacity, Function<T, T> fun) {
+		return addBatchStage(name, nThreads, 1, queueCapacity, batch -> Collections.singletonList(fun.apply(batch.get(0))));
+	}
+
+	/**
+	 * Add a stage that processes items in batches.
+	 * Batches are filled in the order in which items arrive, and may be smaller than the requested
+	 * size when no more items are expected.
+	 * @param name name of the stage
+	 * @param nThreads number of threads used for the stage
+	 * @param batchSize maximum number of items per batch
+	 * @param queueCapacity maximum number of items waiting for the stage; if &le; 0, a default based upon the number of threads is used
+	 * @param fun function to apply to each batch; this must return a list of the same size,
+	 *            containing the processed item (or null) at the corresponding index
+	 * @return this pipeline
+	 */
+	Pipeline<T> addBatchStage(String name, int nThreads, int batchSize, int queueCapacity, Function<List<T>, List<T>> fun) {
+		nThreads = Math.max(1, nThreads);
+		batchSize = Math.max(1, batchSize);
+		if (queueCapacity <= 0)
+			queueCapacity = nThreads * batchSize * 2;
+		stages.add(new Stage<>(name, nThreads, batchSize, queueCapacity, fun));
+		return this;
+	}
+
+	/**
+	 * Pass all items through the pipeline, blocking until processing is complete.
+	 * @param items the items to process
+	 * @return the processed items that were not dropped by any stage, in the same order as the input
+	 * @throws InterruptedException if the calling thread is interrupted while waiting; 
+	 *                              all stages will have stopped before this is thrown
+	 */
+	List<T> process(Collection<? extends T> items) throws InterruptedException {
+		if (stages.isEmpty() || items.isEmpty())
+			return new ArrayList<>(items);
+
+		var failure = new AtomicReference<Throwable>();
+		var stopped = new AtomicBoolean(false);
+		var results = new ConcurrentLinkedQueue<Indexed<T>>();
+
+		List<BlockingQueue<Object>> queues = new ArrayList<>();
+		for (var stage : stages)
+			queues.add(new ArrayBlockingQueue<>(Math.max(stage.queueCapacity, stage.batchSize)));
+
+		List<ExecutorService> pools = new ArrayList<>();
+		try {
+			for (int s = 0; s < stages.size(); s++) {
+				var stage = stages.get(s);
+				var input = queues.get(s);
+				var output = s < stages.size() - 1 ? queues.get(s + 1) : null;
+				var remaining = new AtomicInteger(stage.nThreads);
+				var pool = Executors.newFixedThreadPool(stage.nThreads,
+						ThreadTools.createThreadFactory(name + "-" + stage.name + "-", true));
+				pools.add(pool);
+				for (int t = 0; t < stage.nThreads; t++) {
+					pool.execute(() -> runWorker(stage, input, output, results, failure, stopped, remaining));
+				}
+			}
+
+			// Feed the first stage from the calling thread
+			var first = queues.get(0);
+			int ind = 0;
+			for (var item : items) {
+				if (failure.get() != null)
+					break;
+				first.put(new Indexed<>(ind++, item));
+			}
+			first.put(END);
+
+			for (var pool : pools)
+				pool.shutdown();
+			for (var pool : pools) {
+				while (!pool.awaitTermination(1, TimeUnit.MINUTES))
+					logger.trace("Waiting for pipeline {} to complete", name);
+			}
+		} catch (InterruptedException e) {
+			stopped.set(true);
+			for (var pool : pools)
+				pool.shutdownNow();
+			// Wait for the workers to stop, since they may still be using resources that the caller 
+			// will release as soon as we return
+			awaitTermination(pools);
+			for (var queue : queues)
+				discardQueued(queue);
+			discardAll(results);
+			throw e;
+		}
+
+		var e = failure.get();
+		if (e != null)
+			discardAll(results);
+		if (e instanceof InterruptedException)
+			throw (InterruptedException)e;
+		if (e instanceof Error)
+			throw (Error)e;
+		if (e != null)
+			throw new RuntimeException(e.getMessage(), e);
+
+		return results.stream()
+				.sorted(Comparator.comparingInt((Indexed<T> r) -> r.index))
+				.map(r -> r.item)
+				.toList();
+	}
+
+
+	/**
+	 * Pass all items through the pipeline on the calling thread, without starting any other threads.
+	 * <p>
+	 * Items are passed through every stage in groups no larger than the biggest batch size, 
+	 * so that only a few items are held at any one time. 
+	 * This is useful when only a single thread should be used, e.g. for troubleshooting.
+	 * @param items the items to process
+	 * @return the processed items that were not dropped by any stage, in the same order as the input
+	 * @throws InterruptedException if the calling thread is interrupted; any items being processed are discarded
+	 */
+	List<T> processInline(Collection<? extends T> items) throws InterruptedException {
+		if (stages.isEmpty() || items.isEmpty())
+			return new ArrayList<>(items);
+
+		int groupSize = stages.stream().mapToInt(s -> s.batchSize).max().orElse(1);
+		var results = new ArrayList<T>();
+		List<T> group = new ArrayList<>(groupSize);
+		try {
+			var iter = items.iterator();
+			while (iter.hasNext()) {
+				group = new ArrayList<>(groupSize);
+				while (group.size() < groupSize && iter.hasNext())
+					group.add(iter.next());
+				for (var stage : stages) {
+					if (Thread.interrupted())
+						throw new InterruptedException("Pipeline " + name + " interrupted");
+					group = applyInline(stage, group);
+				}
+				results.addAll(group);
+				group = Collections.emptyList();
+			}
+		} catch (Throwable e) {
+			logger.debug("Exception in pipeline {}: {}", name, e.getMessage(), e);
+			group.forEach(this::discard);
+			results.forEach(this::discard);
+			if (e instanceof InterruptedException)
+				throw (InterruptedException)e;
+			if (e instanceof Error)
+				throw (Error)e;
+			throw new RuntimeException(e.getMessage(), e);
+		}
+		return results;
+	}
+
+	/**
+	 * Apply a stage to a group of items on the calling thread, splitting them into batches as needed.
+	 * If an exception occurs, any items already returned by the stage are discarded; the caller 
+	 * is responsible for discarding the input items.
+	 */
+	private List<T> applyInline(Stage<T> stage, List<T> items) {
+		var output = new ArrayList<T>(items.size());
+		try {
+			for (int i = 0; i < items.size(); i += stage.batchSize) {
+				var batch = items.subList(i, Math.min(items.size(), i + stage.batchSize));
+				var processed = stage.fun.apply(batch);
+				if (processed == null || processed.size() != batch.size())
+					throw new IllegalStateException("Stage " + stage.name + " returned the wrong number of items");
+				for (var item : processed) {
+					if (item != null)
+						output.add(item);
+				}
+			}
+		} catch (RuntimeException | Error e) {
+			output.forEach(this::discard);
+			throw e;
+		}
+		return output;
+	}
+
+
+	/**
+	 * Wait for all pools to terminate, even if interrupted (in which case the interrupt status is restored).
+	 */
+	private void awaitTermination(List<ExecutorService> pools) {
+		boolean interrupted = false;
+		for (var pool : pools) {
+			while (!pool.isTerminated()) {
+				try {
+					if (!pool.awaitTermination(1, TimeUnit.MINUTES))
+						logger.debug("Waiting for pipeline {} to stop", name);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void discard(T item) {
+		if (discard == null || item == null)
+			return;
+		try {
+			discard.accept(item);
+		} catch (Exception e) {
+			logger.warn("Exception discarding pipeline item: {}", e.getMessage(), e);
+		}
+	}
+
+	private void discardAll(Collection<Indexed<T>> items) {
+		for (var item : items)
+			discard(item.item);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void discardQueued(BlockingQueue<Object> queue) {
+		Object next;
+		while ((next = queue.poll()) != null) {
+			if (next != END)
+				discard(((Indexed<T>)next).item);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void runWorker(Stage<T> stage, BlockingQueue<Object> input, BlockingQueue<Object> output, Collection<Indexed<T>> results, 
+			AtomicReference<Throwable> failure, AtomicBoolean stopped, AtomicInteger remaining) {
+		try {
+			boolean done = false;
+			while (!done) {
+				var batch = new ArrayList<Indexed<T>>(stage.batchSize);
+				try {
+					while (batch.size() < stage.batchSize) {
+						var next = input.take();
+						if (next == END) {
+							// Leave the marker for the other threads of this stage
+							input.put(END);
+							done = true;
+							break;
+						}
+						batch.add((Indexed<T>)next);
+					}
+				} catch (InterruptedException e) {
+					discardAll(batch);
+					throw e;
+				}
+				if (batch.isEmpty())
+					continue;
+				// Keep draining the queue if something has gone wrong, to avoid blocking earlier stages
+				if (failure.get() != null) {
+					discardAll(batch);
+					continue;
+				}
+
+				List<T> processed;
+				try {
+					processed = stage.fun.apply(batch.stream().map(b -> b.item).toList());
+					if (processed == null || processed.size() != batch.size())
+						throw new IllegalStateException("Stage " + stage.name + " returned the wrong number of items");
+				} catch (Throwable e) {
+					logger.debug("Exception in pipeline stage {}: {}", stage.name, e.getMessage(), e);
+					failure.compareAndSet(null, e);
+					discardAll(batch);
+					continue;
+				}
+
+				for (int i = 0; i < batch.size(); i++) {
+					var item = processed.get(i);
+					if (item == null)
+						continue;
+					var indexed = new Indexed<>(batch.get(i).index, item);
+					if (output == null)
+						results.add(indexed);
+					else {
+						try {
+							output.put(indexed);
+						} catch (InterruptedException e) {
+							for (int j = i; j < batch.size(); j++)
+								discard(processed.get(j));
+							throw e;
+						}
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+		} finally {
+			// The last thread of each stage tells the next stage that no more items are coming
+			// (unless the pipeline has been stopped, in which case the next stage may not be taking items)
+			if (remaining.decrementAndGet() == 0 && output != null) {
+				while (!stopped.get()) {
+					try {
+						if (output.offer(END, 100, TimeUnit.MILLISECONDS))
+							break;
+					} catch (InterruptedException e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			}
+		}
+	}
+
+
+	private static class Stage<T> {
+
+		private final String name;
+		private final int nThreads;
+		private final int batchSize;
+		private final int queueCapacity;
+		private final Function<List<T>, List<T>> fun;
+
+		Stage(String name, int nThreads, int batchSize, int queueCapacity, Function<List<T>, List<T>> fun) {
+			this.name = name;
+			this.nThreads = nThreads;
+			this.batchSize = batchSize;
+			this.queueCapacity = queueCapacity;
+			this.fun = fun;
+		}
+
+	}
+
+
+	private static class Indexed<T> {
+
+		private final int index;
+		private final T item;
+
+		Indexed(int index, T item) {
+			this.index = index;
+			this.item = item;
+		}
+
+	}
+
+}
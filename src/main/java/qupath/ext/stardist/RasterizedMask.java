@@ -0,0 +1,141 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.algorithm.locate.PointOnGeometryLocator;
+import org.locationtech.jts.algorithm.locate.SimplePointInAreaLocator;
+import org.locationtech.jts.awt.ShapeWriter;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Polygonal;
+
+/**
+ * A mask geometry rasterized onto a regular grid, so that testing whether a point falls inside
+ * usually requires only a single lookup - regardless of the number of vertices in the geometry.
+ * <p>
+ * Each grid cell is labelled as being completely inside, completely outside, or on the boundary.
+ * Only points within boundary cells require an exact test with the geometry, so the result is
+ * the same as using a {@link PointOnGeometryLocator} directly.
+ *
+ * @since v0.6.0
+ */
+class RasterizedMask {
+
+	private static final byte OUTSIDE = 0;
+	private static final byte INSIDE = 1;
+	private static final byte BOUNDARY = 2;
+
+	private final double originX;
+	private final double originY;
+	private final double cellWidth;
+	private final double cellHeight;
+	private final int width;
+	private final int height;
+	private final byte[] cells;
+	private final Envelope rectangle;
+
+	private final PointOnGeometryLocator locator;
+
+	/**
+	 * Rasterize a mask.
+	 * @param mask the mask geometry
+	 * @param originX x-coordinate of the top left of the grid
+	 * @param originY y-coordinate of the top left of the grid
+	 * @param cellWidth width of each grid cell
+	 * @param cellHeight height of each grid cell
+	 * @param width number of columns in the grid
+	 * @param height number of rows in the grid
+	 */
+	RasterizedMask(Geometry mask, double originX, double originY, double cellWidth, double cellHeight, int width, int height) {
+		this.originX = originX;
+		this.originY = originY;
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+		this.width = width;
+		this.height = height;
+		// Rectangles are common (e.g. whenever a tile is inside the parent ROI), and don't need to be rasterized
+		if (mask.isRectangle()) {
+			this.rectangle = mask.getEnvelopeInternal();
+			this.locator = null;
+			this.cells = null;
+			return;
+		}
+		this.rectangle = null;
+		this.locator = mask instanceof Polygonal ? new IndexedPointInAreaLocator(mask) : new SimplePointInAreaLocator(mask);
+
+		// Use an indexed image, so that we can paint the labels directly
+		var colorModel = new IndexColorModel(8, 3,
+				new byte[] {0, (byte)255, 0},
+				new byte[] {0, 0, (byte)255},
+				new byte[] {0, 0, 0});
+		var img = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+		var writer = new ShapeWriter((src, dest) -> dest.setLocation(
+				(src.x - originX) / cellWidth,
+				(src.y - originY) / cellHeight));
+		var shape = writer.toShape(mask);
+		var g2d = img.createGraphics();
+		try {
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+			g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+			// Fill cells with centers inside the mask
+			g2d.setColor(new Color(colorModel.getRGB(INSIDE)));
+			g2d.fill(shape);
+			// Any cell crossed by the boundary has its center within sqrt(2)/2 of it, so a stroke width of 2 would be
+			// enough to mark them all - but the rasterizer approximates round joins, so leave a margin.
+			// Round joins are needed at sharp vertices, where a miter join would be replaced by a bevel
+			g2d.setColor(new Color(colorModel.getRGB(BOUNDARY)));
+			g2d.setStroke(new BasicStroke(3f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+			g2d.draw(shape);
+		} finally {
+			g2d.dispose();
+		}
+		this.cells = ((DataBufferByte)img.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * Test whether a point is inside the mask (or on its boundary).
+	 * This is equivalent to checking that the location is not {@link Location#EXTERIOR}.
+	 * @param coord
+	 * @return
+	 */
+	boolean contains(Coordinate coord) {
+		if (rectangle != null)
+			return rectangle.covers(coord);
+		int x = (int)Math.floor((coord.x - originX) / cellWidth);
+		int y = (int)Math.floor((coord.y - originY) / cellHeight);
+		byte cell = x < 0 || y < 0 || x >= width || y >= height ? BOUNDARY : cells[y * width + x];
+		switch (cell) {
+		case INSIDE:
+			return true;
+		case OUTSIDE:
+			return false;
+		default:
+			return locator.locate(coord) != Location.EXTERIOR;
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+/**
+ * A binary image of unlimited size, where memory is only allocated for 64x64 pixel chunks
+ * containing at least one pixel that has been set.
+ * <p>
+ * This is useful to record the pixels covered by objects spread across a large region,
+ * without needing to allocate an image for the full region.
+ * Coordinates may be negative.
+ *
+ * @since v0.6.0
+ */
+class SparseBitmap {
+
+	private static final int CHUNK_BITS = 6;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// Hash table from chunk keys to chunks, using open addressing so that lookups don't need boxing
+	// Each chunk is stored as one long per row
+	private long[] keys = new long[64];
+	private long[][] chunks = new long[64][];
+	private int nChunks = 0;
+
+	// Cache the last chunk, since consecutive requests are usually nearby
+	private long lastKey;
+	private long[] lastChunk;
+
+	/**
+	 * Query whether a pixel is set.
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	boolean get(int x, int y) {
+		var chunk = getChunk(x, y, false);
+		if (chunk == null)
+			return false;
+		return (chunk[y & CHUNK_MASK] & (1L << (x & CHUNK_MASK))) != 0;
+	}
+
+	/**
+	 * Set a pixel.
+	 * @param x
+	 * @param y
+	 */
+	void set(int x, int y) {
+		var chunk = getChunk(x, y, true);
+		chunk[y & CHUNK_MASK] |= 1L << (x & CHUNK_MASK);
+	}
+
+	private long[] getChunk(int x, int y, boolean create) {
+		long key = ((long)(y >> CHUNK_BITS) << 32) | ((x >> CHUNK_BITS) & 0xFFFFFFFFL);
+		if (lastChunk != null && key == lastKey)
+			return lastChunk;
+		int mask = keys.length - 1;
+		int s = slot(key, mask);
+		long[] chunk;
+		while ((chunk = chunks[s]) != null && keys[s] != key)
+			s = (s + 1) & mask;
+		if (chunk == null) {
+			if (!create)
+				return null;
+			chunk = new long[CHUNK_SIZE];
+			keys[s] = key;
+			chunks[s] = chunk;
+			// Keep the table at most half full
+			if (++nChunks * 2 > keys.length)
+				rehash();
+		}
+		lastKey = key;
+		lastChunk = chunk;
+		return chunk;
+	}
+
+	private static int slot(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h >>> 32) & mask;
+	}
+
+	private void rehash() {
+		var oldKeys = keys;
+		var oldChunks = chunks;
+		keys = new long[oldKeys.length * 2];
+		chunks = new long[oldChunks.length * 2][];
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldChunks[i] == null)
+				continue;
+			int s = slot(oldKeys[i], mask);
+			while (chunks[s] != null)
+				s = (s + 1) & mask;
+			keys[s] = oldKeys[i];
+			chunks[s] = oldChunks[i];
+		}
+	}
+
+}
@@ -0,0 +1,474 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+
+/**
+ * Helper class for working with star-convex polygons, as predicted by StarDist.
+ * <p>
+ * Each polygon is defined by a center and the distances along rays with equally-spaced angles,
+ * starting at 0 and increasing in a clockwise direction (since the y-axis points down).
+ * Ray distances are stored as they are output by the model, and multiplied by a scale factor
+ * to give distances in the full-resolution image.
+ * <p>
+ * This makes it possible to calculate areas and overlaps without creating JTS geometries.
+ *
+ * @since v0.6.0
+ */
+class StarConvexPolygons {
+
+	/**
+	 * Python implementation imposes a minimum value on rays
+	 */
+	static final double MIN_RAY = 1e-3;
+
+	/**
+	 * Tolerance when finding triangles within a range of angles, to allow for rounding errors.
+	 */
+	private static final double ANGLE_TOLERANCE = 1e-9;
+
+	private static final Map<Integer, StarConvexPolygons> INSTANCES = new ConcurrentHashMap<>();
+
+	private final int nRays;
+	private final double angleStep;
+	private final double[] sin;
+	private final double[] cos;
+
+	private StarConvexPolygons(int nRays) {
+		this.nRays = nRays;
+		this.angleStep = 2 * Math.PI / nRays;
+		this.sin = new double[nRays];
+		this.cos = new double[nRays];
+		for (int i = 0; i < nRays; i++) {
+			double theta = angleStep * i;
+			sin[i] = Math.sin(theta);
+			cos[i] = Math.cos(theta);
+		}
+	}
+
+	/**
+	 * Get an instance for the specified number of rays.
+	 * @param nRays
+	 * @return
+	 */
+	static StarConvexPolygons getInstance(int nRays) {
+		return INSTANCES.computeIfAbsent(nRays, StarConvexPolygons::new);
+	}
+
+	/**
+	 * Get the number of rays.
+	 * @return
+	 */
+	int nRays() {
+		return nRays;
+	}
+
+	/**
+	 * Get the length of a ray, imposing the minimum value.
+	 * Non-finite values are also given the minimum value; these are rare, but when creating polygons
+	 * the vertex would be skipped (and so this is only an approximation).
+	 */
+	private static double rayLength(float val) {
+		return Double.isFinite(val) ? Math.max(MIN_RAY, val) : MIN_RAY;
+	}
+
+	/**
+	 * Compute the vertices of a polygon.
+	 * Rays with non-finite values are skipped, as are vertices that are identical to the previous vertex.
+	 * The first vertex is repeated at the end to close the polygon, if needed.
+	 * @param x x-coordinate of the center
+	 * @param y y-coordinate of the center
+	 * @param rays ray distances
+	 * @param scale scale factor to convert ray distances to image pixels
+	 * @param precisionModel precision model to apply to each coordinate
+	 * @param xs array to store x-coordinates; must have length &ge; nRays + 1
+	 * @param ys array to store y-coordinates; must have length &ge; nRays + 1
+	 * @return number of vertices, including the closing vertex; if this is &lt; 4, the polygon is not valid
+	 */
+	int computeVertices(double x, double y, float[] rays, double scale, PrecisionModel precisionModel, double[] xs, double[] ys) {
+		// Project all the rays first, without any branches, so that the loop can be vectorized by the JIT
+		for (int a = 0; a < nRays; a++) {
+			double val = Math.max(MIN_RAY, rays[a]) * scale;
+			xs[a] = x + val * cos[a];
+			ys[a] = y + val * sin[a];
+		}
+		// Compact the vertices in place, skipping non-finite rays and duplicates
+		boolean isFloating = precisionModel.getType() == PrecisionModel.FLOATING;
+		int n = 0;
+		for (int a = 0; a < nRays; a++) {
+			// We can get NaN
+			if (!Float.isFinite(rays[a]))
+				continue;
+			double xx = xs[a];
+			double yy = ys[a];
+			if (!isFloating) {
+				xx = precisionModel.makePrecise(xx);
+				yy = precisionModel.makePrecise(yy);
+			}
+			// Add coordinate if it is distinct
+			if (n == 0 || xx != xs[n-1] || yy != ys[n-1]) {
+				xs[n] = xx;
+				ys[n] = yy;
+				n++;
+			}
+		}
+		if (n >= 3 && (xs[0] != xs[n-1] || ys[0] != ys[n-1])) {
+			xs[n] = xs[0];
+			ys[n] = ys[0];
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Create a polygon from vertex coordinates, where the last vertex is the same as the first.
+	 * @param factory
+	 * @param xs
+	 * @param ys
+	 * @param n number of vertices, including the closing vertex
+	 * @return
+	 */
+	static Polygon createPolygon(GeometryFactory factory, double[] xs, double[] ys, int n) {
+		var seq = factory.getCoordinateSequenceFactory().create(n, 2);
+		for (int i = 0; i < n; i++) {
+			seq.setOrdinate(i, CoordinateSequence.X, xs[i]);
+			seq.setOrdinate(i, CoordinateSequence.Y, ys[i]);
+		}
+		return factory.createPolygon(seq);
+	}
+
+	/**
+	 * Visitor for the pixels within a polygon.
+	 */
+	@FunctionalInterface
+	static interface PixelVisitor {
+
+		/**
+		 * Visit a pixel.
+		 * @param x x-coordinate of the pixel
+		 * @param y y-coordinate of the pixel
+		 */
+		void visit(int x, int y);
+
+	}
+
+	/**
+	 * Visit all the pixels with centers inside a polygon, using a scanline fill.
+	 * Pixel (x, y) has its center at ((x + 0.5) * pixelSize, (y + 0.5) * pixelSize) in image coordinates.
+	 * @param xs x-coordinates of the vertices, where the last vertex is the same as the first
+	 * @param ys y-coordinates of the vertices, where the last vertex is the same as the first
+	 * @param n number of vertices, including the closing vertex
+	 * @param pixelSize size of each pixel, in image coordinates
+	 * @param crossings array used to store the edge crossings for each row; must have length &ge; n
+	 * @param visitor visitor to call for each pixel
+	 * @return the number of pixels visited
+	 */
+	static int rasterize(double[] xs, double[] ys, int n, double pixelSize, double[] crossings, PixelVisitor visitor) {
+		double minY = Double.POSITIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			minY = Math.min(minY, ys[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		int rowStart = (int)Math.ceil(minY / pixelSize - 0.5);
+		int rowEnd = (int)Math.floor(maxY / pixelSize - 0.5);
+		int count = 0;
+		for (int row = rowStart; row <= rowEnd; row++) {
+			double yc = (row + 0.5) * pixelSize;
+			// Find where edges cross the row, keeping them sorted (there are usually very few)
+			int nCrossings = 0;
+			for (int i = 0; i < n - 1; i++) {
+				double y1 = ys[i];
+				double y2 = ys[i+1];
+				if ((y1 <= yc && yc < y2) || (y2 <= yc && yc < y1)) {
+					double xc = xs[i] + (yc - y1) * (xs[i+1] - xs[i]) / (y2 - y1);
+					int k = nCrossings++;
+					while (k > 0 && crossings[k-1] > xc) {
+						crossings[k] = crossings[k-1];
+						k--;
+					}
+					crossings[k] = xc;
+				}
+			}
+			for (int c = 0; c + 1 < nCrossings; c += 2) {
+				int colStart = (int)Math.ceil(crossings[c] / pixelSize - 0.5);
+				int colEnd = (int)Math.ceil(crossings[c+1] / pixelSize - 0.5);
+				for (int col = colStart; col < colEnd; col++) {
+					visitor.visit(col, row);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Compute the area of a polygon.
+	 * @param rays ray distances
+	 * @param scale scale factor to convert ray distances to image pixels
+	 * @return
+	 */
+	double area(float[] rays, double scale) {
+		double sum = 0;
+		double first = rayLength(rays[0]);
+		double prev = first;
+		for (int a = 1; a < nRays; a++) {
+			double r = rayLength(rays[a]);
+			sum += prev * r;
+			prev = r;
+		}
+		sum += prev * first;
+		return 0.5 * Math.sin(angleStep) * sum * scale * scale;
+	}
+
+	/**
+	 * Get the maximum distance from the center to any vertex of a polygon.
+	 * @param rays ray distances
+	 * @param scale scale factor to convert ray distances to image pixels
+	 * @return
+	 */
+	double maxRadius(float[] rays, double scale) {
+		double max = MIN_RAY;
+		for (var r : rays) {
+			if (r > max)
+				max = r;
+		}
+		return max * scale;
+	}
+
+	/**
+	 * Compute the intersection over union of two polygons.
+	 * <p>
+	 * This is exact for the polygons defined by the rays, apart from floating point rounding 
+	 * (in practice, the difference from JTS is &lt; 1e-9). 
+	 * Geometries created from the rays may differ very slightly, because their coordinates are 
+	 * rounded to the precision model, and non-finite rays are treated as having the minimum length 
+	 * rather than being skipped.
+	 * @param x1 x-coordinate of the first center
+	 * @param y1 y-coordinate of the first center
+	 * @param rays1 ray distances of the first polygon
+	 * @param area1 area of the first polygon, as returned by {@link #area(float[], double)}
+	 * @param x2 x-coordinate of the second center
+	 * @param y2 y-coordinate of the second center
+	 * @param rays2 ray distances of the second polygon
+	 * @param area2 area of the second polygon, as returned by {@link #area(float[], double)}
+	 * @param scale scale factor to convert ray distances to image pixels (must be the same for both polygons)
+	 * @return the intersection over union, between 0 and 1
+	 */
+	double iou(double x1, double y1, float[] rays1, double area1, double x2, double y2, float[] rays2, double area2, double scale) {
+		double intersection = intersectionArea(x1, y1, rays1, x2, y2, rays2, scale);
+		double union = area1 + area2 - intersection;
+		return union <= 0 ? 0 : Math.max(0, Math.min(1, intersection / union));
+	}
+
+	/**
+	 * Compute the area of intersection between two polygons.
+	 * <p>
+	 * Each polygon is split into triangles (one for each pair of consecutive rays), which don't overlap.
+	 * The intersection is then the sum of the intersections between pairs of triangles, which are 
+	 * convex and so can be clipped exactly.
+	 * <p>
+	 * Only a few pairs need to be clipped: each triangle of the second polygon covers a range of angles 
+	 * around its center, so a triangle of the first polygon can only intersect those in the range of 
+	 * angles that it spans (unless it contains the center).
+	 *
+	 * @return the intersection area
+	 */
+	double intersectionArea(double x1, double y1, float[] rays1, double x2, double y2, float[] rays2, double scale) {
+		double maxRadius1 = maxRadius(rays1, scale);
+		double maxRadius2 = maxRadius(rays2, scale);
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		if (Math.sqrt(dx*dx + dy*dy) >= maxRadius1 + maxRadius2)
+			return 0;
+
+		// Vertices of both polygons, relative to the center of the first
+		double[] vx1 = new double[nRays];
+		double[] vy1 = new double[nRays];
+		double[] vx2 = new double[nRays];
+		double[] vy2 = new double[nRays];
+		for (int a = 0; a < nRays; a++) {
+			double r1 = rayLength(rays1[a]) * scale;
+			vx1[a] = r1 * cos[a];
+			vy1[a] = r1 * sin[a];
+			double r2 = rayLength(rays2[a]) * scale;
+			vx2[a] = dx + r2 * cos[a];
+			vy2[a] = dy + r2 * sin[a];
+		}
+
+		// Angles of the vertices of the first polygon around the center of the second
+		double[] theta1 = new double[nRays];
+		for (int a = 0; a < nRays; a++)
+			theta1[a] = Math.atan2(vy1[a] - dy, vx1[a] - dx);
+		double thetaCenter1 = Math.atan2(-dy, -dx);
+
+		// Bounding boxes for the triangles of the second polygon
+		double[] minX2 = new double[nRays];
+		double[] minY2 = new double[nRays];
+		double[] maxX2 = new double[nRays];
+		double[] maxY2 = new double[nRays];
+		for (int c = 0; c < nRays; c++) {
+			int d = c + 1 == nRays ? 0 : c + 1;
+			minX2[c] = Math.min(dx, Math.min(vx2[c], vx2[d]));
+			minY2[c] = Math.min(dy, Math.min(vy2[c], vy2[d]));
+			maxX2[c] = Math.max(dx, Math.max(vx2[c], vx2[d]));
+			maxY2[c] = Math.max(dy, Math.max(vy2[c], vy2[d]));
+		}
+
+		// Clipping a triangle by 3 edges gives at most 6 vertices
+		double[] xs = new double[8];
+		double[] ys = new double[8];
+		double[] xsTemp = new double[8];
+		double[] ysTemp = new double[8];
+
+		double total = 0;
+		for (int a = 0; a < nRays; a++) {
+			int b = a + 1 == nRays ? 0 : a + 1;
+			double minX1 = Math.min(0, Math.min(vx1[a], vx1[b]));
+			double minY1 = Math.min(0, Math.min(vy1[a], vy1[b]));
+			double maxX1 = Math.max(0, Math.max(vx1[a], vx1[b]));
+			double maxY1 = Math.max(0, Math.max(vy1[a], vy1[b]));
+			if (minX1 >= dx + maxRadius2 || maxX1 <= dx - maxRadius2 || minY1 >= dy + maxRadius2 || maxY1 <= dy - maxRadius2)
+				continue;
+
+			// Find the triangles of the second polygon in the range of angles spanned by this triangle
+			int kStart = 0;
+			int kEnd = nRays - 1;
+			if (!triangleContains(0, 0, vx1[a], vy1[a], vx1[b], vy1[b], dx, dy)) {
+				// The triangle spans < 180 degrees, so measure angles relative to one vertex
+				double d1 = angleDifference(theta1[a], thetaCenter1);
+				double d2 = angleDifference(theta1[b], thetaCenter1);
+				double thetaMin = thetaCenter1 + Math.min(0, Math.min(d1, d2)) - ANGLE_TOLERANCE;
+				double thetaMax = thetaCenter1 + Math.max(0, Math.max(d1, d2)) + ANGLE_TOLERANCE;
+				kStart = (int)Math.floor(thetaMin / angleStep);
+				kEnd = (int)Math.floor(thetaMax / angleStep);
+			}
+			for (int k = kStart; k <= kEnd; k++) {
+				int c = Math.floorMod(k, nRays);
+				if (minX1 >= maxX2[c] || maxX1 <= minX2[c] || minY1 >= maxY2[c] || maxY1 <= minY2[c])
+					continue;
+				int d = c + 1 == nRays ? 0 : c + 1;
+				total += triangleIntersectionArea(
+						0, 0, vx1[a], vy1[a], vx1[b], vy1[b],
+						dx, dy, vx2[c], vy2[c], vx2[d], vy2[d],
+						xs, ys, xsTemp, ysTemp);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Get the difference between two angles, in the range -pi to pi.
+	 */
+	private static double angleDifference(double theta, double thetaRef) {
+		double d = theta - thetaRef;
+		if (d > Math.PI)
+			d -= 2 * Math.PI;
+		else if (d < -Math.PI)
+			d += 2 * Math.PI;
+		return d;
+	}
+
+	/**
+	 * Test whether a point is inside or on the boundary of a triangle, where the vertices are 
+	 * in counter-clockwise order (assuming the y-axis points up).
+	 */
+	private static boolean triangleContains(double ax, double ay, double bx, double by, double cx, double cy, double x, double y) {
+		return (bx - ax) * (y - ay) - (by - ay) * (x - ax) >= 0 &&
+				(cx - bx) * (y - by) - (cy - by) * (x - bx) >= 0 &&
+				(ax - cx) * (y - cy) - (ay - cy) * (x - cx) >= 0;
+	}
+
+	/**
+	 * Compute the area of intersection between two triangles, where the vertices of each are 
+	 * in counter-clockwise order (assuming the y-axis points up).
+	 * The first triangle is clipped by each edge of the second, using the Sutherland-Hodgman algorithm.
+	 * @return the intersection area
+	 */
+	private static double triangleIntersectionArea(
+			double ax1, double ay1, double bx1, double by1, double cx1, double cy1,
+			double ax2, double ay2, double bx2, double by2, double cx2, double cy2,
+			double[] xs, double[] ys, double[] xsTemp, double[] ysTemp) {
+		xs[0] = ax1; ys[0] = ay1;
+		xs[1] = bx1; ys[1] = by1;
+		xs[2] = cx1; ys[2] = cy1;
+		int n = clip(xs, ys, 3, ax2, ay2, bx2, by2, xsTemp, ysTemp);
+		if (n < 3)
+			return 0;
+		n = clip(xsTemp, ysTemp, n, bx2, by2, cx2, cy2, xs, ys);
+		if (n < 3)
+			return 0;
+		n = clip(xs, ys, n, cx2, cy2, ax2, ay2, xsTemp, ysTemp);
+		if (n < 3)
+			return 0;
+		double sum = 0;
+		for (int i = 0, j = n - 1; i < n; j = i++)
+			sum += xsTemp[j] * ysTemp[i] - xsTemp[i] * ysTemp[j];
+		return Math.max(0, 0.5 * sum);
+	}
+
+	/**
+	 * Clip a convex polygon, retaining the part to the left of an edge.
+	 * @param xs x-coordinates of the polygon vertices
+	 * @param ys y-coordinates of the polygon vertices
+	 * @param n number of vertices (without repeating the first vertex)
+	 * @param ex1 x-coordinate of the start of the edge
+	 * @param ey1 y-coordinate of the start of the edge
+	 * @param ex2 x-coordinate of the end of the edge
+	 * @param ey2 y-coordinate of the end of the edge
+	 * @param xsOut array to store the x-coordinates of the clipped polygon; must have length &ge; n + 1
+	 * @param ysOut array to store the y-coordinates of the clipped polygon; must have length &ge; n + 1
+	 * @return the number of vertices in the clipped polygon
+	 */
+	private static int clip(double[] xs, double[] ys, int n, double ex1, double ey1, double ex2, double ey2, double[] xsOut, double[] ysOut) {
+		double ex = ex2 - ex1;
+		double ey = ey2 - ey1;
+		double xPrev = xs[n-1];
+		double yPrev = ys[n-1];
+		double sidePrev = ex * (yPrev - ey1) - ey * (xPrev - ex1);
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			double x = xs[i];
+			double y = ys[i];
+			double side = ex * (y - ey1) - ey * (x - ex1);
+			// Add the crossing point if the edge changes side
+			if ((side >= 0) != (sidePrev >= 0)) {
+				double t = sidePrev / (sidePrev - side);
+				xsOut[m] = xPrev + t * (x - xPrev);
+				ysOut[m] = yPrev + t * (y - yPrev);
+				m++;
+			}
+			if (side >= 0) {
+				xsOut[m] = x;
+				ysOut[m] = y;
+				m++;
+			}
+			xPrev = x;
+			yPrev = y;
+			sidePrev = side;
+		}
+		return m;
+	}
+
+}
@@ -20,44 +20,48 @@ import java.awt.image.BufferedImage;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.bytedeco.javacpp.PointerScope;
-import org.bytedeco.javacpp.indexer.FloatIndexer;
 import org.bytedeco.opencv.global.opencv_core;
 import org.bytedeco.opencv.global.opencv_imgproc;
 import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
 import org.bytedeco.opencv.opencv_core.Size;
 import org.locationtech.jts.algorithm.Centroid;
-import org.locationtech.jts.algorithm.locate.SimplePointInAreaLocator;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryCollection;
-import org.locationtech.jts.geom.Location;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
-import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.simplify.VWSimplifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -75,6 +79,7 @@ import qupath.lib.images.servers.ColorTransforms;
 import qupath.lib.images.servers.ColorTransforms.ColorTransform;
 import qupath.lib.images.servers.PixelCalibration;
 import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.TileRequest;
 import qupath.lib.images.servers.TransformedServerBuilder;
 import qupath.lib.objects.CellTools;
 import qupath.lib.objects.PathCellObject;
@@ -88,7 +93,6 @@ import qupath.lib.roi.GeometryTools;
 import qupath.lib.roi.interfaces.ROI;
 import qupath.opencv.dnn.DnnModel;
 import qupath.opencv.dnn.DnnModelParams;
-import qupath.opencv.dnn.DnnModels;
 import qupath.opencv.ops.ImageDataOp;
 import qupath.opencv.ops.ImageOp;
 import qupath.opencv.ops.ImageOps;
@@ -118,6 +122,79 @@ public class StarDist2D implements AutoCloseable {
 	 */
 	public static int defaultTileSize = 1024;
 	
+	/**
+	 * Tiles passed to the model have a width and height that is a multiple of this value.
+	 * This needs to be consistent with the expected maximum number of pooling operations 
+	 * to avoid shape problems (6 is a generous estimate; usually 3 or 4 are expected).
+	 */
+	private static final int TILE_SIZE_MULTIPLE = 64;
+	
+	/**
+	 * Minimum number of candidate pixels in a tile before decoding in parallel.
+	 */
+	private static final int MIN_PARALLEL_DECODE_CANDIDATES = 5000;
+	
+	/**
+	 * Minimum height of a band of the prediction when decoding in parallel.
+	 */
+	private static final int MIN_DECODE_BAND_HEIGHT = 64;
+	
+	/**
+	 * Minimum number of potential nuclei before resolving overlaps in parallel.
+	 */
+	private static final int MIN_PARALLEL_FILTER_NUCLEI = 20000;
+	
+	/**
+	 * Approximate number of potential nuclei in each spatial partition, when resolving overlaps in parallel.
+	 */
+	private static final int NUCLEI_PER_PARTITION = 2000;
+	
+	/**
+	 * Overlaps smaller than this proportion of the area of a nucleus are ignored when 
+	 * resolving overlaps using geometries across tile seams, if the nucleus was already trimmed within its tile.
+	 */
+	private static final double NEGLIGIBLE_OVERLAP = 1e-3;
+	
+	/**
+	 * Methods to resolve overlaps between potential nuclei (i.e. non-maximum suppression).
+	 * <p>
+	 * In all cases, nuclei are considered in descending order of probability, and a nucleus is 
+	 * retained or discarded depending upon its overlap with nuclei that have already been retained.
+	 * 
+	 * @since v0.6.0
+	 */
+	public static enum OverlapMethod {
+		
+		/**
+		 * Subtract the geometry of each retained nucleus from any overlapping nuclei.
+		 * Overlapping nuclei are retained (in their reduced form) if they are not fragmented, 
+		 * and more than half their original area remains.
+		 * This is the default, and generally avoids overlaps completely - but can be slow for dense nuclei.
+		 */
+		GEOMETRY,
+		
+		/**
+		 * Discard any nucleus with an intersection over union greater than the overlap threshold 
+		 * with a retained nucleus, similar to the Python implementation of StarDist.
+		 * The intersection is computed directly from the predicted rays, so that geometries are 
+		 * only created for the nuclei that are retained; this is usually much faster, but nuclei 
+		 * may overlap slightly.
+		 * @see Builder#overlapThreshold(double)
+		 */
+		RAYS,
+		
+		/**
+		 * Paint the pixels of each nucleus into a binary image, discarding any nucleus where 
+		 * more than half its pixels have already been painted by a retained nucleus.
+		 * This mirrors the rule used by {@link #GEOMETRY}, but the time required increases 
+		 * only with the number of pixels covered - making it suitable for very dense nuclei.
+		 * Geometries are only created for the nuclei that are retained, and overlaps between 
+		 * these are not removed.
+		 */
+		RASTER
+		
+	}
+	
 	/**
 	 * Builder to help create a {@link StarDist2D} with custom parameters.
 	 */
@@ -126,12 +203,22 @@ public class StarDist2D implements AutoCloseable {
 		private boolean doLog;
 		
 		private int nThreads = -1;
+		private int readThreads = -1;
+		private int preprocessThreads = -1;
+		private int inferenceThreads = -1;
+		private int decodeThreads = -1;
+		private int postprocessThreads = -1;
+		private long prefetchMemory = -1;
 		
 		private String modelPath = null;
 		private DnnModel dnn = null;
 		private ColorTransform[] channels = new ColorTransform[0];
 		
 		private double threshold = 0.5;
+		private int candidateRadius = 0;
+		
+		private OverlapMethod overlapMethod = OverlapMethod.GEOMETRY;
+		private double overlapThreshold = 0.4;
 		
 		private int pad = 32;
 		
@@ -145,6 +232,12 @@ public class StarDist2D implements AutoCloseable {
 		private int tileWidth = -1;
 		private int tileHeight = -1;
 		
+		private int batchSize = 1;
+		private boolean fixedTileShape = false;
+		private boolean tileOwnership = false;
+		private int modelPoolSize = -1;
+		private boolean cacheModel = true;
+		
 		// Optional layout string, following the bioimage.io spec
 		private String layout;
 		
@@ -185,6 +278,57 @@ public class StarDist2D implements AutoCloseable {
 			return this;
 		}
 		
+		/**
+		 * Optionally only create nuclei for pixels that have the maximum probability within a 
+		 * local neighborhood.
+		 * <p>
+		 * Neighboring pixels within a nucleus tend to produce very similar polygons, most of which 
+		 * are discarded when resolving overlaps. Skipping pixels that aren't local maxima can 
+		 * substantially reduce the time required for detection, particularly with densely-packed nuclei.
+		 * <p>
+		 * The trade-off is that the highest-probability polygon for a nucleus is not always the best 
+		 * fit: occasionally a suppressed pixel would have produced a nucleus that survived when 
+		 * an overlapping one did not. Any radius &gt; 0 therefore gives approximate results, which 
+		 * can differ slightly from those obtained using all pixels.
+		 * Small radius values (e.g. 1 or 2) are recommended.
+		 * <p>
+		 * This is opt-in. Default is 0, meaning that all pixels above the threshold are used and 
+		 * results are unchanged.
+		 * @param radius radius of the square neighborhood (in pixels of the prediction), or 0 to use all pixels
+		 * @return this builder
+		 * @see #threshold(double)
+		 */
+		public Builder candidateRadius(int radius) {
+			this.candidateRadius = radius;
+			return this;
+		}
+		
+		/**
+		 * Specify the method used to resolve overlaps between potential nuclei.
+		 * Default is {@link OverlapMethod#GEOMETRY}.
+		 * @param method
+		 * @return this builder
+		 * @see #overlapThreshold(double)
+		 */
+		public Builder overlapMethod(OverlapMethod method) {
+			this.overlapMethod = method;
+			return this;
+		}
+		
+		/**
+		 * Maximum intersection over union between two nuclei, above which the nucleus with the lower 
+		 * probability is discarded.
+		 * This is only used with {@link OverlapMethod#RAYS}.
+		 * Default is 0.4.
+		 * @param iou the intersection over union threshold, between 0 and 1
+		 * @return this builder
+		 * @see #overlapMethod(OverlapMethod)
+		 */
+		public Builder overlapThreshold(double iou) {
+			this.overlapThreshold = iou;
+			return this;
+		}
+		
 		/**
 		 * Add preprocessing operations, if required.
 		 * @param ops
@@ -439,8 +583,14 @@ public class StarDist2D implements AutoCloseable {
 		
 		/**
 		 * Specify the number of threads to use for processing.
+		 * <p>
+		 * This is also the default number of threads for each stage of tile processing, 
+		 * unless these are specified separately. 
+		 * Each stage has its own threads, so that the stages can run at the same time.
+		 * <p>
 		 * If you encounter problems, setting this to 1 may help to resolve them by preventing 
-		 * multithreading.
+		 * multithreading. In this case, as long as no stage is given more threads, all tiles are 
+		 * read, predicted and decoded in turn on a single thread.
 		 * @param nThreads
 		 * @return this builder
 		 */
@@ -449,6 +599,109 @@ public class StarDist2D implements AutoCloseable {
 			return this;
 		}
 		
+		/**
+		 * Specify the number of threads used to read tiles from the image.
+		 * <p>
+		 * Tiles are processed in a pipeline, where reading, preprocessing, prediction and decoding 
+		 * each have their own threads. This makes it possible for slow image reading to overlap with 
+		 * prediction.
+		 * If this is not specified, the value given by {@link #nThreads(int)} is used, 
+		 * or else the number of available processors.
+		 * @param nThreads
+		 * @return this builder
+		 * @see #preprocessThreads(int)
+		 * @see #inferenceThreads(int)
+		 * @see #decodeThreads(int)
+		 */
+		public Builder readThreads(int nThreads) {
+			this.readThreads = nThreads;
+			return this;
+		}
+		
+		/**
+		 * Specify the approximate amount of memory that may be used to read tiles ahead of prediction.
+		 * <p>
+		 * Tiles are read in the order in which they will be predicted, and held in a buffer 
+		 * until they are needed. This helps ensure that input is always ready for the model, 
+		 * which is especially helpful when reading images is slow (e.g. from network storage).
+		 * The maximum number of tiles in the buffer is estimated from the tile size and number of channels.
+		 * <p>
+		 * This does not include tiles that have already been preprocessed, or predictions waiting to be decoded. 
+		 * These are limited separately to one batch for each inference thread, and one tile for 
+		 * each decode thread.
+		 * <p>
+		 * If this is not specified, the default is 256 MB or 1/8 of the maximum memory available 
+		 * to Java, whichever is smaller.
+		 * @param bytes maximum number of bytes to use for prefetched tiles
+		 * @return this builder
+		 * @see #readThreads(int)
+		 */
+		public Builder prefetchMemory(long bytes) {
+			this.prefetchMemory = bytes;
+			return this;
+		}
+		
+		/**
+		 * Specify the number of threads used to preprocess tiles before prediction.
+		 * If this is not specified, the value given by {@link #nThreads(int)} is used, 
+		 * or else the number of available processors.
+		 * @param nThreads
+		 * @return this builder
+		 * @see #readThreads(int)
+		 */
+		public Builder preprocessThreads(int nThreads) {
+			this.preprocessThreads = nThreads;
+			return this;
+		}
+		
+		/**
+		 * Specify the number of threads that may call the model for prediction at the same time.
+		 * Setting this to 1 can help if the model does not support concurrent prediction.
+		 * <p>
+		 * This is independent of {@link #postprocessThreads(int)}, so that prediction can be throttled 
+		 * without also limiting the (often highly parallel) processing that follows.
+		 * If this is not specified, the value given by {@link #modelPoolSize(int)} is used 
+		 * (if &gt; 0), or {@link #nThreads(int)}, or else the number of available processors.
+		 * @param nThreads
+		 * @return this builder
+		 * @see #readThreads(int)
+		 * @see #modelPoolSize(int)
+		 */
+		public Builder inferenceThreads(int nThreads) {
+			this.inferenceThreads = nThreads;
+			return this;
+		}
+		
+		/**
+		 * Specify the number of threads used to convert predictions into nuclei.
+		 * If this is not specified, the value given by {@link #postprocessThreads(int)} is used, 
+		 * or {@link #nThreads(int)}, or else the number of available processors.
+		 * @param nThreads
+		 * @return this builder
+		 * @see #readThreads(int)
+		 */
+		public Builder decodeThreads(int nThreads) {
+			this.decodeThreads = nThreads;
+			return this;
+		}
+		
+		/**
+		 * Specify the number of threads used for processing after prediction.
+		 * This includes resolving overlaps between nuclei, estimating cell boundaries and 
+		 * making measurements.
+		 * <p>
+		 * These steps run in their own thread pool, separate from prediction, so that 
+		 * they can use all available processors even if {@link #inferenceThreads(int)} is low.
+		 * If this is not specified, the value given by {@link #nThreads(int)} is used.
+		 * @param nThreads
+		 * @return this builder
+		 * @see #inferenceThreads(int)
+		 */
+		public Builder postprocessThreads(int nThreads) {
+			this.postprocessThreads = nThreads;
+			return this;
+		}
+		
 		/**
 		 * Request default intensity measurements are made for all available cell compartments.
 		 * @return this builder
@@ -548,6 +801,118 @@ public class StarDist2D implements AutoCloseable {
 			return this;
 		}
 		
+		/**
+		 * Number of tiles to pass to the model in a single prediction.
+		 * <p>
+		 * Tiles are only batched together if they have the same size after preprocessing; 
+		 * any others are passed to the model individually. 
+		 * This can improve performance for models that support a batch dimension 
+		 * (e.g. a layout of {@code "byxc"}), at the cost of requiring more memory. 
+		 * If batch prediction fails, tiles will be predicted one at a time instead.
+		 * Default is 1.
+		 * @param batchSize maximum number of tiles per prediction
+		 * @return this builder
+		 * @see #layout(String)
+		 * @see #fixedTileShape(boolean)
+		 */
+		public Builder batchSize(int batchSize) {
+			this.batchSize = batchSize;
+			return this;
+		}
+		
+		/**
+		 * Optionally pass every tile to the model with exactly the same width and height.
+		 * <p>
+		 * By default, tiles are only padded to make their width and height a multiple of 64 pixels. 
+		 * This means that tiles at the image boundary (or at the edge of a region) can have many 
+		 * different shapes, which may cause some backends to reallocate memory or rebuild their graph 
+		 * for each new shape.
+		 * <p>
+		 * If this is true, the shape is computed once from the tile size (including padding), rounded up to 
+		 * a multiple of 64 pixels. All tiles are then padded (using reflection) or cropped to exactly this shape. 
+		 * This requires a little more computation for boundary tiles, but also means that tiles can 
+		 * always be batched together.
+		 * Default is false.
+		 * @param fixedShape if true, always pass tiles of the same size to the model
+		 * @return this builder
+		 * @see #tileSize(int, int)
+		 * @see #batchSize(int)
+		 */
+		public Builder fixedTileShape(boolean fixedShape) {
+			this.fixedTileShape = fixedShape;
+			return this;
+		}
+		
+		/**
+		 * Specify whether each tile should only keep the nuclei centered within it, after resolving 
+		 * overlaps using the potential nuclei in its padded region.
+		 * <p>
+		 * By default, only potential nuclei centered within a tile are considered when resolving overlaps 
+		 * for that tile - and then overlaps between tiles are resolved afterwards.
+		 * <p>
+		 * If this is true, overlaps are resolved using all potential nuclei centered within the padded tile, 
+		 * after which the tile keeps only those centered within its unpadded region. 
+		 * This means nuclei near the tile boundary are resolved with the same context as nuclei elsewhere.
+		 * <p>
+		 * Adjacent tiles can still detect the same nucleus from different pixels on either side of the 
+		 * boundary, so the nuclei that cross a boundary are compared afterwards to remove duplicates.
+		 * The padding should be at least as large as the diameter of the largest nucleus, 
+		 * otherwise nuclei at the tile boundaries may be truncated.
+		 * Default is false.
+		 * @param ownership if true, resolve overlaps independently for each tile
+		 * @return this builder
+		 * @see #padding(int)
+		 */
+		public Builder tileOwnership(boolean ownership) {
+			this.tileOwnership = ownership;
+			return this;
+		}
+		
+		/**
+		 * Number of independent model instances to use for prediction.
+		 * <p>
+		 * By default, a single model is shared by all threads that make predictions. 
+		 * Whether this works well depends upon the backend: some are not thread-safe, 
+		 * or serialize predictions internally.
+		 * <p>
+		 * If the pool size is &gt; 0, this number of models are built from the same model file 
+		 * and each is used by only one thread at a time. 
+		 * This means that a pool size of 1 ensures the model is never called concurrently.
+		 * Unless {@link #inferenceThreads(int)} is specified, the number of threads used for 
+		 * prediction will match the pool size.
+		 * <p>
+		 * Note that additional models can't be built if the builder was created from an existing 
+		 * {@link DnnModel}; in that case, any pool size &gt; 0 is treated as 1.
+		 * 
+		 * @param size number of model instances, or &le; 0 to share a single model between threads
+		 * @return this builder
+		 * @see #inferenceThreads(int)
+		 */
+		public Builder modelPoolSize(int size) {
+			this.modelPoolSize = size;
+			return this;
+		}
+		
+		/**
+		 * Optionally reuse a model that has already been loaded by another {@link StarDist2D}.
+		 * <p>
+		 * Loading a model can be slow, so by default models are cached (based upon the model file, 
+		 * its last modified time and the layout). 
+		 * Cached models are closed after the last {@link StarDist2D} using them is closed, 
+		 * unless {@link StarDist2D#setMaxCachedModels(int)} has been used to retain 
+		 * unused models until they are needed again.
+		 * <p>
+		 * This has no effect if the builder was created from an existing {@link DnnModel}.
+		 * 
+		 * @param cache true if cached models may be used (default), false if the model should always be loaded
+		 * @return this builder
+		 * @see StarDist2D#clearModelCache()
+		 */
+		public Builder cacheModel(boolean cache) {
+			this.cacheModel = cache;
+			return this;
+		}
+		
 		/**
 		 * Amount to pad tiles to reduce boundary artifacts.
 		 * @param pad padding in pixels; width and height of tiles will be increased by pad x 2.
@@ -667,8 +1032,12 @@ public class StarDist2D implements AutoCloseable {
 			var stardist = new StarDist2D();
 			
 //			var padding = pad > 0 ? Padding.symmetric(pad) : Padding.empty();
-			var dnn = this.dnn;
-			if (dnn == null) {
+			DnnModelPool modelPool;
+			if (dnn != null) {
+				if (modelPoolSize > 1)
+					logger.warn("Can't create a pool of {} models from an existing model - will use one model instead", modelPoolSize);
+				modelPool = modelPoolSize > 0 ? DnnModelPool.exclusive(Collections.singletonList(dnn)) : DnnModelPool.shared(dnn);
+			} else {
 				// Search for the model file - permitting a search in the user directory
 				var file = findModelFile(modelPath);
 				if (file == null || !file.exists()) {
@@ -683,15 +1052,18 @@ public class StarDist2D implements AutoCloseable {
 							.files(file)
 							.layout(ndLayout);
 					var params = builder.build();
-					dnn = DnnModels.buildModel(params);
-					if (dnn != null)
-						logger.debug("Loaded model {} as {}", modelPath, dnn);
+					if (cacheModel)
+						modelPool = DnnModelCache.getInstance().acquire(file, ndLayout, modelPoolSize, () -> DnnModelPool.build(params, modelPoolSize));
+					else
+						modelPool = DnnModelPool.build(params, modelPoolSize);
+					if (modelPool != null)
+						logger.debug("Loaded model {} as {}", modelPath, modelPool.getModel());
 				} catch (Exception e) {
                     logger.error("Unable to load model file: {}", e.getMessage(), e);
 					throw new RuntimeException("Unable to load StarDist model from " + modelPath, e);
 				}
 				// Report if we have no model
-				if (dnn == null) {
+				if (modelPool == null) {
 					throw new IllegalArgumentException("No StarDist model found for path " + modelPath);
 				}
 			}
@@ -701,13 +1073,19 @@ public class StarDist2D implements AutoCloseable {
 			stardist.globalPreprocess = globalPreprocessing;
 			stardist.preprocess = new ArrayList<>(preprocessing);
 			
-			stardist.dnn = dnn;
+			stardist.modelPool = modelPool;
 			stardist.threshold = threshold;
+			stardist.candidateRadius = candidateRadius;
+			stardist.overlapMethod = overlapMethod == null ? OverlapMethod.GEOMETRY : overlapMethod;
+			stardist.overlapThreshold = overlapThreshold;
 			stardist.pixelSize = pixelSize;
 			stardist.cellConstrainScale = cellConstrainScale;
 			stardist.cellExpansion = cellExpansion;
 			stardist.tileWidth = tileWidth;
 			stardist.tileHeight = tileHeight;
+			stardist.batchSize = batchSize;
+			stardist.fixedTileShape = fixedTileShape;
+			stardist.tileOwnership = tileOwnership;
 			stardist.pad = pad;
 			stardist.includeProbability = includeProbability;
 			stardist.ignoreCellOverlaps = ignoreCellOverlaps;
@@ -715,6 +1093,12 @@ public class StarDist2D implements AutoCloseable {
 			stardist.doLog = doLog;
 			stardist.simplifyDistance = simplifyDistance;
 			stardist.nThreads = nThreads;
+			stardist.readThreads = readThreads;
+			stardist.preprocessThreads = preprocessThreads;
+			stardist.inferenceThreads = inferenceThreads;
+			stardist.decodeThreads = decodeThreads;
+			stardist.postprocessThreads = postprocessThreads;
+			stardist.prefetchMemory = prefetchMemory;
 			stardist.constrainToParent = constrainToParent;
 			stardist.creatorFun = creatorFun;
 			stardist.globalPathClass = globalPathClass;
@@ -747,20 +1131,15 @@ public class StarDist2D implements AutoCloseable {
 		var userPath = UserDirectoryManager.getInstance().getUserPath();
 		if (userPath != null && Files.isDirectory(userPath)) {
 			try {
-				var potentialFiles = Files.walk(userPath)
-						.filter(p -> p.getFileName().toString().equals(path))
-						.sorted(Comparator.comparingInt((Path p) -> "stardist".equalsIgnoreCase(parentDirName(p)) ? -1 : 0)
-								.thenComparing((Path p) -> "models".equalsIgnoreCase(parentDirName(p)) ? -1 : 1)
-								.thenComparing(p -> p.toString()))
-						.map(p -> p.toFile())
-						.toList();
+				var potentialFiles = ModelFileIndex.findFiles(userPath, path);
 				if (potentialFiles.isEmpty())
 					return null;
 				else if (potentialFiles.size() == 1) {
+					file = potentialFiles.get(0).toFile();
 					logger.debug("Found model file {}", file.getAbsolutePath());
-					return potentialFiles.get(0);
+					return file;
 				} else {
-					file = potentialFiles.get(0);
+					file = potentialFiles.get(0).toFile();
 					logger.warn("Found {} potential models for {}, will use {}",
 							potentialFiles.size(),
 							path,
@@ -773,23 +1152,21 @@ public class StarDist2D implements AutoCloseable {
 		}
 		return null;
 	}
-
-	private static String parentDirName(Path path) {
-		if (path == null || path.getParent() == null)
-			return null;
-		return path.getParent().getFileName().toString();
-	}
 	
 	private boolean doLog = false;
 	
 	private double simplifyDistance = 1.4;
 	
 	private double threshold;
+	private int candidateRadius = 0;
+	
+	private OverlapMethod overlapMethod = OverlapMethod.GEOMETRY;
+	private double overlapThreshold = 0.4;
 	
 	private ImageDataOp op;
 	private TileOpCreator globalPreprocess;
 	private List<ImageOp> preprocess;
-	private DnnModel dnn;
+	private DnnModelPool modelPool;
 	
 	private double pixelSize;
 	private double cellExpansion;
@@ -804,12 +1181,22 @@ public class StarDist2D implements AutoCloseable {
 	private boolean constrainToParent = true;
 	
 	private int nThreads = -1;
+	private int readThreads = -1;
+	private int preprocessThreads = -1;
+	private int inferenceThreads = -1;
+	private int decodeThreads = -1;
+	private int postprocessThreads = -1;
+	private long prefetchMemory = -1;
 	
 	private boolean includeProbability = false;
 	
 	private int tileWidth = 1024;
 	private int tileHeight = 1024;
 	
+	private int batchSize = 1;
+	private boolean fixedTileShape = false;
+	private boolean tileOwnership = false;
+	
 	private int pad = 0;
 
 	private boolean measureShape = false;
@@ -818,6 +1205,8 @@ public class StarDist2D implements AutoCloseable {
 	private Collection<ObjectMeasurements.Measurements> measurements;
 	
 	private final AtomicBoolean firstRun = new AtomicBoolean(true);
+	private final AtomicBoolean warnedPadding = new AtomicBoolean(false);
+	private final AtomicBoolean closed = new AtomicBoolean(false);
 	private boolean cancelRuns = false;
 	
 	
@@ -867,6 +1256,50 @@ public class StarDist2D implements AutoCloseable {
 		}
 	}
 	
+	/**
+	 * Compute a value using a dedicated thread pool, if the number of threads is specified.
+	 * This limits the parallelization used by parallel streams within the supplier, 
+	 * independently of any outer pool.
+	 * @param <T>
+	 * @param nThreads number of threads for the pool; if &le; 0, the supplier is called directly
+	 * @param supplier
+	 * @return the computed value, or null if interrupted
+	 */
+	private <T> T computeInPool(int nThreads, Supplier<T> supplier) {
+		if (nThreads <= 0)
+			return supplier.get();
+		// Reuse the current pool if it already has the right number of threads (e.g. from runInPool)
+		var currentPool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : null;
+		if (currentPool != null && currentPool.getParallelism() == nThreads)
+			return supplier.get();
+		try (var pool = new ForkJoinPool(nThreads)) {
+			return computeInPool(pool, supplier);
+		}
+	}
+	
+	/**
+	 * Compute a value using an existing thread pool.
+	 * @param <T>
+	 * @param pool the pool to use
+	 * @param supplier
+	 * @return the computed value, or null if interrupted
+	 */
+	private <T> T computeInPool(ForkJoinPool pool, Supplier<T> supplier) {
+		try {
+			return pool.submit(() -> supplier.get()).get();
+		} catch (ExecutionException e) {
+			var cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new RuntimeException(cause);
+		} catch (InterruptedException e) {
+			logger.warn("StarDist interrupted!");
+			logger.debug(e.getMessage(), e);
+			cancelRuns = true;
+			return null;
+		}
+	}
+	
 		
 	private void detectObjectsImpl(ImageData<BufferedImage> imageData, Collection<? extends PathObject> parents) {
 
@@ -877,10 +1310,15 @@ public class StarDist2D implements AutoCloseable {
 			return;
 		}
 		log("Processing {} parent objects", parents.size());
-		if (nThreads >= 0)
-			parents.forEach(p -> detectObjectsImpl(imageData, p, false));
-		else
-			parents.parallelStream().forEach(p -> detectObjectsImpl(imageData, p, false));
+		
+		// Each parent has its own pipeline, so that its results are added as soon as it is complete 
+		// (and retained if a later parent is cancelled).
+		// Parents are processed in turn, since each pipeline can already use all the available threads.
+		for (var parent : parents) {
+			detectObjectsImpl(imageData, parent, false);
+			if (cancelRuns)
+				break;
+		}
 		
 		// Fire a global update event
 		imageData.getHierarchy().fireHierarchyChangedEvent(imageData.getHierarchy());
@@ -924,6 +1362,174 @@ public class StarDist2D implements AutoCloseable {
 	 * @return the detected objects. Note that these will not automatically be added to the object hierarchy.
 	 */
 	public List<PathObject> detectObjects(ImageData<BufferedImage> imageData, ROI roi) {
+		return detectObjects(imageData, Collections.singletonList(roi)).get(0);
+	}
+	
+	
+	/**
+	 * Detect cells within one or more ROIs.
+	 * All tiles are passed through a single pipeline, so that prediction can continue across 
+	 * ROIs, while the cells for each ROI are processed separately.
+	 * @param imageData image to which the ROIs belong
+	 * @param rois regions of interest which which to detect cells. Any null ROIs are treated as the entire image.
+	 * @return a list of detected objects for each ROI, in the same order as the input. 
+	 *         If detection is cancelled, each list will be empty.
+	 */
+	private List<List<PathObject>> detectObjects(ImageData<BufferedImage> imageData, List<ROI> rois) {
+		
+		var regions = rois.parallelStream()
+				.map(r -> createRegion(imageData, r))
+				.toList();
+		
+		// Tiles often have the same size, so we can reuse buffers rather than reallocating them
+		var buffers = new MatPool();
+		var tasks = new ArrayList<TileTask>();
+		for (var region : regions) {
+			for (var tile : region.tiles)
+				tasks.add(new TileTask(region, tile.getRegionRequest(), buffers));
+		}
+		
+		// If there are fewer tiles than decode threads, the spare threads can decode bands within each tile - 
+		// using a single pool for all tiles, so that we don't exceed the number of decode threads
+		int nDecodeThreads = resolveDecodeThreads();
+		int nDecodeBands = Math.max(1, nDecodeThreads / Math.max(1, tasks.size()));
+		var decodePool = nDecodeBands > 1 ? new ForkJoinPool(nDecodeThreads) : null;
+		for (var task : tasks) {
+			task.decodeBands = nDecodeBands;
+			task.decodePool = decodePool;
+		}
+		
+		// Detect all potential nuclei
+		if (tasks.size() > 1)
+			log("Detecting nuclei for {} tiles", tasks.size());
+		else
+			log("Detecting nuclei");
+		
+		List<TileTask> completed;
+		try {
+			long bytesPerTile = regions.stream().mapToLong(r -> r.bytesPerTile).max().orElse(1L);
+			var pipeline = createPipeline(imageData, bytesPerTile);
+			if (isSingleThreaded())
+				completed = pipeline.processInline(tasks);
+			else
+				completed = pipeline.process(tasks);
+		} catch (InterruptedException e) {
+			logger.debug("StarDist pipeline interrupted", e);
+			cancelRuns = true;
+			completed = Collections.emptyList();
+		} finally {
+			buffers.close();
+			if (decodePool != null)
+				decodePool.close();
+		}
+		
+		if (cancelRuns)
+			return rois.stream().map(r -> Collections.<PathObject>emptyList()).toList();
+		
+		for (var task : completed)
+			task.region.completedTiles.add(task);
+		
+		// Postprocessing may use a different number of threads from prediction
+		// Always use a dedicated pool, since parallel streams used when resolving overlaps run within it
+		var detections = computeInPool(resolveThreads(postprocessThreads), () -> regions.parallelStream()
+				.map(r -> postprocess(imageData, r))
+				.toList());
+		
+		if (cancelRuns || detections == null)
+			return rois.stream().map(r -> Collections.<PathObject>emptyList()).toList();
+		return detections;
+	}
+	
+	
+	/**
+	 * Create a pipeline to read, preprocess, predict and decode tiles.
+	 * @param imageData the image data
+	 * @param bytesPerTile estimated number of bytes required for each tile, used to determine how many 
+	 *                     tiles can be read ahead of prediction
+	 * @return the pipeline
+	 */
+	private Pipeline<TileTask> createPipeline(ImageData<BufferedImage> imageData, long bytesPerTile) {
+		int nBatch = Math.max(1, batchSize);
+		if (nBatch > 1)
+			log("Predicting with batch size {}", nBatch);
+		
+		// Determine how many tiles can be buffered after reading
+		long maxBytes = prefetchMemory;
+		if (maxBytes <= 0)
+			maxBytes = Math.min(256L * 1024L * 1024L, Runtime.getRuntime().maxMemory() / 8);
+		int nPrefetch = (int)Math.max(1, Math.min(maxBytes / Math.max(1L, bytesPerTile), 1024));
+		logger.debug("Prefetching up to {} tiles ({} MB per tile)", nPrefetch, 
+				GeneralTools.formatNumber(bytesPerTile / (1024.0 * 1024.0), 2));
+		
+		// Later queues hold preprocessed tiles and (much larger) model outputs, which aren't covered by 
+		// the prefetch memory - so keep only enough to ensure the next stage always has work waiting
+		int nInference = resolveInferenceThreads();
+		int nDecode = resolveDecodeThreads();
+		
+		// Any tiles that are discarded (e.g. because of an exception) need to release their native memory
+		return new Pipeline<TileTask>("stardist", TileTask::release)
+				.addStage("read", resolveThreads(readThreads), -1, t -> readTile(imageData, t))
+				.addStage("preprocess", resolveThreads(preprocessThreads), nPrefetch, t -> preprocessTile(t))
+				.addBatchStage("predict", nInference, nBatch, nInference * nBatch, b -> predictTiles(b))
+				.addStage("decode", nDecode, nDecode, t -> decodeTile(t));
+	}
+	
+	
+	/**
+	 * Check whether all processing should use a single thread.
+	 * This is the case if {@link Builder#nThreads(int)} is 1, and no stage has been given more threads.
+	 * @return
+	 */
+	private boolean isSingleThreaded() {
+		return nThreads == 1 && resolveThreads(readThreads) == 1 && resolveThreads(preprocessThreads) == 1 && 
+				resolveInferenceThreads() == 1 && resolveDecodeThreads() == 1 && resolveThreads(postprocessThreads) == 1;
+	}
+	
+	
+	/**
+	 * Get the number of threads to use for a pipeline stage.
+	 * @param requested the number of threads requested for the stage, or -1 if unspecified
+	 * @return the requested threads, if specified, otherwise the default number of threads
+	 */
+	private int resolveThreads(int requested) {
+		if (requested > 0)
+			return requested;
+		if (nThreads > 0)
+			return nThreads;
+		return Runtime.getRuntime().availableProcessors();
+	}
+	
+	
+	/**
+	 * Get the number of threads to use for decoding tiles.
+	 * If this isn't specified, the number of postprocessing threads is used.
+	 * @return
+	 */
+	private int resolveDecodeThreads() {
+		return resolveThreads(decodeThreads > 0 ? decodeThreads : postprocessThreads);
+	}
+	
+	
+	/**
+	 * Get the number of threads to use for prediction.
+	 * If this isn't specified, there is no benefit in using more threads than we have 
+	 * models in an exclusive pool.
+	 * @return
+	 */
+	private int resolveInferenceThreads() {
+		if (inferenceThreads <= 0 && modelPool.isExclusive())
+			return modelPool.size();
+		return resolveThreads(inferenceThreads);
+	}
+	
+	
+	/**
+	 * Get the tiles and operations needed to detect cells within a ROI.
+	 * @param imageData image to which the ROI belongs
+	 * @param roi region of interest which which to detect cells. If null, the entire image will be used.
+	 * @return the region, ready for tile processing
+	 */
+	private DetectionRegion createRegion(ImageData<BufferedImage> imageData, ROI roi) {
 
 		var resolution = imageData.getServer().getPixelCalibration();
 		if (Double.isFinite(pixelSize) && pixelSize > 0) {
@@ -952,17 +1558,12 @@ public class StarDist2D implements AutoCloseable {
 
 		// Get all the required tiles that intersect with the mask ROI
 		var mask = roi == null ? null : roi.getGeometry();
+		var preparedMask = mask == null ? null : PreparedGeometryFactory.prepare(mask);
 		var tiles = opServer.getTileRequestManager().getTileRequests(request)
 				.stream()
-				.filter(t -> mask == null || mask.intersects(GeometryTools.createRectangle(t.getImageX(), t.getImageY(), t.getImageWidth(), t.getImageHeight())))
+				.filter(t -> preparedMask == null || preparedMask.intersects(GeometryTools.createRectangle(t.getImageX(), t.getImageY(), t.getImageWidth(), t.getImageHeight())))
 				.collect(Collectors.toList());
 		
-		// Detect all potential nuclei
-		var server = imageData.getServer();
-		var cal = server.getPixelCalibration();
-		double expansion = cellExpansion / cal.getAveragedPixelSize().doubleValue();
-		var plane = request.getImagePlane();
-		
 		// Compute op with preprocessing
 		var fullPreprocess = new ArrayList<ImageOp>();
 		fullPreprocess.add(ImageOps.Core.ensureType(PixelType.FLOAT32));
@@ -983,24 +1584,53 @@ public class StarDist2D implements AutoCloseable {
 		if (fullPreprocess.size() > 1)
 			fullPreprocess.add(ImageOps.Core.ensureType(PixelType.FLOAT32));
 
-		var opWithPreprocessing = op.appendOps(fullPreprocess.toArray(ImageOp[]::new));
-
-		// Detect all potential nuclei
-		if (tiles.size() > 1)
-			log("Detecting nuclei for {} tiles", tiles.size());
-		else
-			log("Detecting nuclei");
-		var nuclei = tiles.parallelStream()
-				.flatMap(t -> detectObjectsForTile(opWithPreprocessing, dnn, imageData, t.getRegionRequest(), tiles.size() > 1, mask).stream())
-				.collect(Collectors.toList());
+		// Preprocessing can be applied separately from reading only if it doesn't need any padding
+		var region = new DetectionRegion(preparedMask, request, resolution, tiles);
+		if (fixedTileShape) {
+			region.inputWidth = roundUpToTileMultiple(tw);
+			region.inputHeight = roundUpToTileMultiple(th);
+		}
+		region.bytesPerTile = (long)roundUpToTileMultiple(tw) * roundUpToTileMultiple(th) * Math.max(1, opServer.nChannels()) * Float.BYTES;
+		var preprocessOp = ImageOps.Core.sequential(fullPreprocess);
+		var preprocessPadding = preprocessOp.getPadding();
+		if (preprocessPadding == null || preprocessPadding.isEmpty()) {
+			region.readOp = op;
+			region.preprocessOp = preprocessOp;
+		} else {
+			region.readOp = op.appendOps(fullPreprocess.toArray(ImageOp[]::new));
+			region.preprocessOp = null;
+		}
+		return region;
+	}
+	
+	
+	/**
+	 * Convert the potential nuclei for a region into objects, resolving overlaps and adding measurements 
+	 * as required.
+	 * @param imageData the image data
+	 * @param region the region, after all tiles have been processed
+	 * @return the detected objects
+	 */
+	private List<PathObject> postprocess(ImageData<BufferedImage> imageData, DetectionRegion region) {
 		
-		if (cancelRuns)
-			return Collections.emptyList();
+		var mask = constrainToParent ? region.preparedMask : null;
+		var resolution = region.resolution;
+		var server = imageData.getServer();
+		var cal = server.getPixelCalibration();
+		double expansion = cellExpansion / cal.getAveragedPixelSize().doubleValue();
+		var plane = region.request.getImagePlane();
 		
 		// Filter nuclei again if we need to for resolving tile overlaps
-		if (tiles.size() > 1) {
+		List<PotentialNucleus> nuclei;
+		if (region.completedTiles.size() > 1) {
 			log("Resolving nucleus overlaps");
-			nuclei = filterNuclei(nuclei);
+			nuclei = resolveTileOverlaps(region.completedTiles);
+		} else {
+			nuclei = new ArrayList<>();
+			for (var tile : region.completedTiles) {
+				nuclei.addAll(tile.nuclei);
+				nuclei.addAll(tile.seamNuclei);
+			}
 		}
 		
 		// Convert to detections, dilating to approximate cells if necessary
@@ -1008,7 +1638,7 @@ public class StarDist2D implements AutoCloseable {
 		var detections = nuclei.parallelStream()
 				.map(n -> {
 					try {
-						return convertToObject(n, plane, expansion, constrainToParent ? mask : null);
+						return convertToObject(n, plane, expansion, mask);
 					} catch (Exception e) {
                         logger.warn("Error converting to object: {}", e.getMessage(), e);
 						return null;
@@ -1104,8 +1734,31 @@ public class StarDist2D implements AutoCloseable {
 	}
 	
 	
-	private PathObject convertToObject(PotentialNucleus nucleus, ImagePlane plane, double cellExpansion, Geometry mask) {
-		var geomNucleus = simplify(nucleus.geometry);
+	/**
+	 * Check whether a nucleus (and its cell, if required) might extend beyond the mask, 
+	 * and therefore needs to be clipped.
+	 * This is a conservative test based upon the bounding box, which avoids the cost of 
+	 * intersecting objects that lie inside the mask.
+	 * @param nucleus the nucleus
+	 * @param cellExpansion the cell expansion, in pixels
+	 * @param preparedMask the mask; if null, no clipping is required
+	 * @return
+	 */
+	private static boolean requiresClipping(PotentialNucleus nucleus, double cellExpansion, PreparedGeometry preparedMask) {
+		if (preparedMask == null)
+			return false;
+		var envelope = new Envelope(nucleus.getEnvelope());
+		envelope.expandBy(Math.max(0, cellExpansion) + 1);
+		return !preparedMask.covers(GeometryTools.getDefaultFactory().toGeometry(envelope));
+	}
+	
+	
+	private PathObject convertToObject(PotentialNucleus nucleus, ImagePlane plane, double cellExpansion, PreparedGeometry preparedMask) {
+		var geomNucleus = simplify(nucleus.getGeometry());
+		
+		// Most objects are far from the mask boundary, and so don't need to be clipped
+		var mask = requiresClipping(nucleus, cellExpansion, preparedMask) ? preparedMask.getGeometry() : null;
+		
 		PathObject pathObject;
 		if (cellExpansion > 0) {
 //			cellExpansion = geomNucleus.getPrecisionModel().makePrecise(cellExpansion);
@@ -1125,11 +1778,11 @@ public class StarDist2D implements AutoCloseable {
 			geomCell = GeometryTools.ensurePolygonal(geomCell);
 			
 			if (geomCell.isEmpty()) {
-				logger.warn("Empty cell boundary at {} will be skipped", nucleus.geometry.getCentroid());
+				logger.warn("Empty cell boundary at {} will be skipped", nucleus.getGeometry().getCentroid());
 				return null;
 			}
 			if (geomNucleus.isEmpty()) {
-				logger.warn("Empty nucleus at {} will be skipped", nucleus.geometry.getCentroid());
+				logger.warn("Empty nucleus at {} will be skipped", nucleus.getGeometry().getCentroid());
 				return null;
 			}
 			var roiCell = GeometryTools.geometryToROI(geomCell, plane);
@@ -1195,28 +1848,48 @@ public class StarDist2D implements AutoCloseable {
 	}
 	
 	
-	private static Mat extractChannels(Mat mat, int... channels) {
+	/**
+	 * Extract channels from a Mat, optionally using a pool of buffers for the output.
+	 * @param mat the input Mat
+	 * @param buffers optional pool used to request the output; if provided, the output should be 
+	 *                returned to the pool when no longer needed
+	 * @param channels the channels to extract
+	 * @return a Mat containing the extracted channels
+	 */
+	private static Mat extractChannels(Mat mat, MatPool buffers, int... channels) {
 		Mat output;
 		int n = channels.length;
 		if (n == 0) {
 			output = new Mat();			
-		} else if (n == 1) {
-			output = new Mat();
-			opencv_core.extractChannel(mat, output, channels[0]);
 		} else {
-			int[] pairs = new int[n * 2];
-			for (int i = 0; i < n; i++) {
-				pairs[i*2] = channels[i];
-				pairs[i*2+1] = i;
+			int type = opencv_core.CV_MAKE_TYPE(mat.depth(), n);
+			output = buffers == null ? new Mat(mat.rows(), mat.cols(), type) : buffers.acquire(mat.rows(), mat.cols(), type);
+			if (n == 1)
+				opencv_core.extractChannel(mat, output, channels[0]);
+			else {
+				int[] pairs = new int[n * 2];
+				for (int i = 0; i < n; i++) {
+					pairs[i*2] = channels[i];
+					pairs[i*2+1] = i;
+				}
+				opencv_core.mixChannels(mat, 1, output, 1, pairs, n);
 			}
-			output = new Mat(mat.rows(), mat.cols(), opencv_core.CV_MAKE_TYPE(mat.depth(), n));
-			opencv_core.mixChannels(mat, 1, output, 1, pairs, n);
 		}
 		return output;
 	}
 	
 	
-	private static Padding ensureSize(Mat mat, int width, int height, int borderType) {
+	/**
+	 * Ensure that a Mat has the specified size, padding if necessary.
+	 * @param mat the input Mat
+	 * @param output the output Mat; this may be the same as the input. If it already has the required 
+	 *               size and type, then its memory will be reused.
+	 * @param width the required width
+	 * @param height the required height
+	 * @param borderType OpenCV border type used for any padding
+	 * @return the padding that was added
+	 */
+	private static Padding ensureSize(Mat mat, Mat output, int width, int height, int borderType) {
 		int x1 = 0, x2 = 0, y1 = 0, y2 = 0;
 		int w = mat.cols();
 		int h = mat.rows();
@@ -1237,31 +1910,33 @@ public class StarDist2D implements AutoCloseable {
 			pad = true;
 		}
 		if (pad) {
-			opencv_core.copyMakeBorder(mat, mat, y1, y2, x1, x2, borderType);
+			opencv_core.copyMakeBorder(mat, output, y1, y2, x1, x2, borderType);
 			padding = Padding.getPadding(x1, x2, y1, y2);
-		}
+		} else if (output != mat)
+			mat.copyTo(output);
 		if (w != width && h != height)
-			opencv_imgproc.resize(mat, mat, new Size(width, height));
+			opencv_imgproc.resize(output, output, new Size(width, height));
 		return padding;
 	}
 	
 	
-	private List<PotentialNucleus> detectObjectsForTile(ImageDataOp op, DnnModel dnn, ImageData<BufferedImage> imageData, RegionRequest request, boolean excludeOnBounds, Geometry mask) {
-
-		List<PotentialNucleus> nuclei;
+	/**
+	 * Read a padded tile.
+	 * This is the first stage of the tile pipeline.
+	 * @param imageData the image data
+	 * @param task the tile task
+	 * @return the tile task, or null if the tile could not be read
+	 */
+	private TileTask readTile(ImageData<BufferedImage> imageData, TileTask task) {
 		
 		if (Thread.interrupted())
 			cancelRuns = true;
 		
 		if (cancelRuns)
-			return Collections.emptyList();
+			return null;
 		
-		// Create a mask around pixels we can use
-		var regionMask = GeometryTools.createRectangle(request.getX(), request.getY(), request.getWidth(), request.getHeight());
-		if (mask == null)
-			mask = regionMask;
-		else
-			mask = GeometryTools.attemptOperation(mask, m -> m.intersection(regionMask));
+		var request = task.request;
+		var preparedMask = task.region.preparedMask;
 
 		// Create a padded request, if we need one
 		RegionRequest requestPadded = request;
@@ -1274,6 +1949,16 @@ public class StarDist2D implements AutoCloseable {
 			int y2 = (int)Math.min(server.getHeight(), Math.round(request.getMaxY() + downsample * pad));
 			requestPadded = RegionRequest.createInstance(server.getPath(), downsample, x1, y1, x2-x1, y2-y1, request.getZ(), request.getT());
 		}
+		task.requestPadded = requestPadded;
+		
+		// Create a mask around pixels we can use - 
+		// we only need to intersect with the ROI if the tile crosses its boundary
+		var maskRequest = tileOwnership ? requestPadded : request;
+		var regionMask = GeometryTools.createRectangle(maskRequest.getX(), maskRequest.getY(), maskRequest.getWidth(), maskRequest.getHeight());
+		if (preparedMask == null || preparedMask.covers(regionMask))
+			task.mask = regionMask;
+		else
+			task.mask = GeometryTools.attemptOperation(preparedMask.getGeometry(), m -> m.intersection(regionMask));
 		
 //		// Hack to visualize the tiles that are computed (for debugging)
 //		imageData.getHierarchy().addPathObject(
@@ -1282,116 +1967,492 @@ public class StarDist2D implements AutoCloseable {
 //						PathClassFactory.getPathClass("Temporary")
 //						));
 		
+		// The tile is passed to other threads, so we need to retain it beyond the scope
 		try (var scope = new PointerScope()) {
-			Mat mat;
-			try {
-				mat = op.apply(imageData, requestPadded);
-			} catch (IOException e) {
-				logger.error(e.getMessage(), e);
-				return Collections.emptyList();
-			}
-						
+			var mat = task.region.readOp.apply(imageData, requestPadded);
+			task.mat = mat.retainReference();
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			return null;
+		}
+		return task;
+	}
+	
+	
+	/**
+	 * Apply any preprocessing to a tile, and ensure it has a suitable size for prediction.
+	 * This is the second stage of the tile pipeline.
+	 * @param task the tile task
+	 * @return the tile task, or null if processing has been cancelled
+	 */
+	private TileTask preprocessTile(TileTask task) {
+		
+		if (cancelRuns) {
+			task.release();
+			return null;
+		}
+		
+		try (var scope = new PointerScope()) {
+			var mat = task.mat;
+			if (task.region.preprocessOp != null)
+				mat = task.region.preprocessOp.apply(mat);
+			
 			// Calculate image width & height.
-			// These need to be consistent with the expected maximum number of pooling operations
-			// to avoid shape problems.
-			int expectedPooling = 6; // A generous estimate (usually 3 or 4 expected)
-			int multiple = (int)Math.pow(2, expectedPooling);
-			int tw = (int)Math.ceil(mat.cols()/(double)multiple) * multiple;
-			int th = (int)Math.ceil(mat.rows()/(double)multiple) * multiple;
-//			
-			// Ensure we have a Mat of the right size
-			var padding = ensureSize(mat, tw, th, opencv_core.BORDER_REFLECT);
+			// If we need a fixed shape, every tile is cropped or padded to exactly that shape - 
+			// the padding is tracked so that we can still convert coordinates later
+			int tw, th;
+			if (task.region.inputWidth > 0 && task.region.inputHeight > 0) {
+				tw = task.region.inputWidth;
+				th = task.region.inputHeight;
+				mat = cropToSize(task, mat, tw, th);
+			} else {
+				tw = roundUpToTileMultiple(mat.cols());
+				th = roundUpToTileMultiple(mat.rows());
+			}
 			
-			boolean isFirstRun = firstRun.getAndSet(false);
+			// Ensure we have a Mat of the right size, using a pooled buffer if we need to pad - 
+			// or to copy a cropped view, since the model may read the data directly and needs it to be continuous
+			var output = mat;
+			if (mat.cols() != tw || mat.rows() != th || !mat.isContinuous())
+				output = task.buffers.acquire(th, tw, mat.type());
+			task.padding = ensureSize(mat, output, tw, th, opencv_core.BORDER_REFLECT);
 			
-			Map<String, Mat> output;
+			if (output != task.mat) {
+				// Pooled buffers are already retained
+				if (output == mat)
+					output.retainReference();
+				task.buffers.release(task.mat);
+				task.mat = output;
+			}
+		}
+		return task;
+	}
+	
+	
+	/**
+	 * Crop a tile from the right and bottom if it is larger than the fixed input shape.
+	 * This can happen when the padded request is rounded to whole pixels. 
+	 * The padded request is shrunk to match, so that nuclei touching the new boundary are still 
+	 * excluded when decoding.
+	 * @param task the tile task
+	 * @param mat the tile, which may be larger than the input shape
+	 * @param width the required maximum width
+	 * @param height the required maximum height
+	 * @return the cropped tile, or the original tile if no cropping was needed; 
+	 *         a cropped tile is a view of the original, and so is not continuous
+	 */
+	private static Mat cropToSize(TileTask task, Mat mat, int width, int height) {
+		if (mat.cols() <= width && mat.rows() <= height)
+			return mat;
+		int w = Math.min(mat.cols(), width);
+		int h = Math.min(mat.rows(), height);
+		var request = task.requestPadded;
+		double downsample = request.getDownsample();
+		task.requestPadded = RegionRequest.createInstance(request.getPath(), downsample, 
+				request.getX(), request.getY(), 
+				Math.min(request.getWidth(), (int)Math.floor(w * downsample)), 
+				Math.min(request.getHeight(), (int)Math.floor(h * downsample)), 
+				request.getZ(), request.getT());
+		return mat.apply(new Rect(0, 0, w, h));
+	}
+	
+	
+	/**
+	 * Round a tile size up to the next multiple of {@link #TILE_SIZE_MULTIPLE}.
+	 * @param size
+	 * @return
+	 */
+	static int roundUpToTileMultiple(int size) {
+		return (int)Math.ceil(size / (double)TILE_SIZE_MULTIPLE) * TILE_SIZE_MULTIPLE;
+	}
+	
+	
+	/**
+	 * Apply the model to preprocessed tiles.
+	 * This is the third stage of the tile pipeline.
+	 * A model is leased from the pool for the duration of the prediction.
+	 * <p>
+	 * If prediction fails, all the tasks are released (including any outputs already assigned) 
+	 * before the exception is rethrown.
+	 * @param tasks the tile tasks
+	 * @return the tile tasks, or a list of nulls if processing has been cancelled
+	 */
+	private List<TileTask> predictTiles(List<TileTask> tasks) {
+		
+		DnnModel dnn = null;
+		try {
+			if (!cancelRuns)
+				dnn = modelPool.acquire();
+		} catch (InterruptedException e) {
+			logger.debug("Interrupted while waiting for model", e);
+			cancelRuns = true;
+		}
+		
+		if (cancelRuns) {
+			modelPool.release(dnn);
+			tasks.forEach(t -> t.release());
+			return Collections.nCopies(tasks.size(), null);
+		}
+		
+		try (var scope = new PointerScope()) {
+			var outputs = predict(dnn, tasks.stream().map(t -> t.mat).toList());
+			for (int i = 0; i < tasks.size(); i++) {
+				var output = outputs.get(i);
+				output.values().forEach(m -> m.retainReference());
+				tasks.get(i).output = output;
+			}
+		} catch (Throwable t) {
+			// Outputs are only retained once assigned to a task, so releasing the tasks frees everything
+			tasks.forEach(task -> task.release());
+			throw t;
+		} finally {
+			modelPool.release(dnn);
+		}
+		return tasks;
+	}
+	
+	
+	/**
+	 * Apply the model to preprocessed images.
+	 * Images with the same dimensions are passed to the model as a single batch.
+	 * @param dnn the model used for prediction
+	 * @param mats the preprocessed images
+	 * @return a list containing the model output for each image, in the same order as the inputs
+	 */
+	private static List<Map<String, Mat>> predict(DnnModel dnn, List<Mat> mats) {
+		if (mats.size() == 1) {
+			var mat = mats.get(0);
 //			synchronized(dnn) {
-				output = dnn.predict(Map.of(DnnModel.DEFAULT_INPUT_NAME, mat));
+			return Collections.singletonList(dnn.predict(Map.of(DnnModel.DEFAULT_INPUT_NAME, mat)));
 //			}
-			Mat matProb = null;
-			Mat matRays = null;
-			Mat matClassifications = null;
-			if (output.size() == 1) {
-				// Split channels to extract probability, ray and (possibly) classification images
-				var matOutput = output.values().iterator().next();
-				int nChannels = matOutput.channels();
-				int nClassifications = classifications == null ? 0 : classifications.size();
-				int nRays = nChannels - 1 - nClassifications;
-				matProb = extractChannels(matOutput, 0);
-				matRays = extractChannels(matOutput, range(1, nRays+1));
-				matClassifications = nClassifications == 0 ? null : extractChannels(matOutput, range(nRays+1, nChannels));
-			} else {
-				// Split output as needed
-				// We require that probabilities are single-channel, and there are more rays than classifications
-				for (var entry : output.entrySet()) {
-					var temp = entry.getValue();
-					if (temp.channels() == 1)
-						matProb = temp;
-					else if (matRays == null)
-						matRays = temp;
-					else {
-						if (temp.channels() > matRays.channels()) {
-							matClassifications = matRays;
-							matRays = temp;
-						} else
-							matClassifications = temp;
+		}
+		
+		// Group by shape, since all inputs in a batch need to be the same size
+		var groups = IntStream.range(0, mats.size())
+				.boxed()
+				.collect(Collectors.groupingBy(i -> List.of(mats.get(i).rows(), mats.get(i).cols()),
+						LinkedHashMap::new,
+						Collectors.toList()));
+		
+		List<Map<String, Mat>> outputs = new ArrayList<>(Collections.nCopies(mats.size(), null));
+		for (var group : groups.values()) {
+			List<Map<String, Mat>> blobs = group.stream()
+					.map(i -> Map.of(DnnModel.DEFAULT_INPUT_NAME, mats.get(i)))
+					.toList();
+			List<Map<String, Mat>> batchOutput = null;
+			if (blobs.size() > 1) {
+				try {
+					batchOutput = dnn.batchPredict(blobs);
+					if (batchOutput.size() != blobs.size()) {
+						logger.warn("Batch prediction returned {} outputs for {} inputs", batchOutput.size(), blobs.size());
+						batchOutput = null;
 					}
+				} catch (Exception e) {
+					LogTools.warnOnce(logger, "Batch prediction failed, tiles will be predicted individually (" + e.getMessage() + ")");
+					logger.debug(e.getMessage(), e);
 				}
 			}
-			
-			// Warn if we have weird dimensions on the first run
-			if (isFirstRun) {
-				if (classifications != null && !classifications.isEmpty()) {
-					int nClassifications = classifications.size();
-					int nChannels = matClassifications == null ? 0 : matClassifications.channels();
-					// We might not specify a background classification, but if we have very different numbers from the prediction we should report that
-					if (nClassifications > nChannels || nClassifications < nChannels-1)
-						logger.warn("{} classifications provided, {} available in the prediction", nClassifications, nChannels);
-					else
-						logger.debug("{} classifications provided, {} available in the prediction", nClassifications, nChannels);
+			if (batchOutput == null) {
+				batchOutput = blobs.stream()
+						.map(b -> dnn.predict(b))
+						.toList();
+			}
+			for (int j = 0; j < group.size(); j++) {
+				outputs.set(group.get(j), batchOutput.get(j));
+			}
+		}
+		return outputs;
+	}
+	
+	
+	/**
+	 * Convert the model output for a single tile into potential nuclei, and release the tile resources.
+	 * This is the final stage of the tile pipeline.
+	 * @param task the tile task
+	 * @return the tile task with nuclei set (after resolving overlaps within the tile), 
+	 *         or null if processing has been cancelled
+	 */
+	private TileTask decodeTile(TileTask task) {
+		try (var scope = new PointerScope()) {
+			if (cancelRuns)
+				return null;
+			task.nuclei = decodeTile(task.mat, task.output, task.requestPadded, task.padding, task.mask, task.region.tiles.size() > 1, task.buffers, task.decodeBands, task.decodePool);
+			if (tileOwnership)
+				retainOwnedNuclei(task);
+			if (task.region.tiles.size() > 1)
+				task.splitSeamNuclei();
+			return task;
+		} finally {
+			task.release();
+		}
+	}
+	
+	
+	/**
+	 * Retain only the nuclei centered within the unpadded tile, for use with {@link Builder#tileOwnership(boolean)}.
+	 * <p>
+	 * Each location belongs to exactly one tile, but the same nucleus can still be retained by two tiles 
+	 * if they detect it from different pixels on either side of the boundary. 
+	 * Overlaps between nuclei that extend beyond their tile therefore still need to be resolved afterwards.
+	 * @param task the decoded tile task
+	 */
+	private void retainOwnedNuclei(TileTask task) {
+		var request = task.request;
+		var requestPadded = task.requestPadded;
+		var owned = retainOwnedNuclei(task.nuclei, request.getX(), request.getY(), request.getMaxX(), request.getMaxY());
+		int nTruncated = 0;
+		for (var nucleus : owned) {
+			// Check if the nucleus reaches the edge of the padded tile (excluding the image boundary)
+			var env = nucleus.getEnvelope();
+			if ((env.getMinX() <= requestPadded.getX() && requestPadded.getX() > 0) || 
+					(env.getMinY() <= requestPadded.getY() && requestPadded.getY() > 0) ||
+					env.getMaxX() >= requestPadded.getMaxX() || env.getMaxY() >= requestPadded.getMaxY())
+				nTruncated++;
+		}
+		if (nTruncated > 0 && task.region.tiles.size() > 1 && !warnedPadding.getAndSet(true))
+			logger.warn("Some nuclei reach the edge of the padded tile - consider increasing the padding when using tile ownership");
+		task.nuclei = owned;
+	}
+	
+	
+	/**
+	 * Retain only the nuclei centered within a region.
+	 * The region is half-open, so that each location belongs to exactly one of a set of adjacent tiles.
+	 * @param nuclei the nuclei to check
+	 * @param x1 minimum x-coordinate (inclusive)
+	 * @param y1 minimum y-coordinate (inclusive)
+	 * @param x2 maximum x-coordinate (exclusive)
+	 * @param y2 maximum y-coordinate (exclusive)
+	 * @return the nuclei centered within the region, in the same order
+	 */
+	static List<PotentialNucleus> retainOwnedNuclei(List<PotentialNucleus> nuclei, double x1, double y1, double x2, double y2) {
+		var owned = new ArrayList<PotentialNucleus>();
+		for (var nucleus : nuclei) {
+			if (nucleus.x >= x1 && nucleus.x < x2 && nucleus.y >= y1 && nucleus.y < y2)
+				owned.add(nucleus);
+		}
+		return owned;
+	}
+	
+	
+	/**
+	 * Convert the model output for a single tile into potential nuclei.
+	 * @param mat the preprocessed input to the model
+	 * @param output the model output for the tile
+	 * @param requestPadded the padded request used to read the tile
+	 * @param padding any additional padding added to the tile after reading it
+	 * @param mask optional geometry mask, in the full image space
+	 * @param excludeOnBounds if true, exclude nuclei that touch the right or bottom boundary of the padded tile
+	 * @param buffers pool of buffers that may be used when splitting the output
+	 * @param nBands maximum number of threads that may be used to decode the tile, by splitting it into bands
+	 * @param pool pool used to decode bands in parallel; may be null if nBands is 1
+	 * @return the potential nuclei, after resolving overlaps within the tile
+	 */
+	private List<PotentialNucleus> decodeTile(Mat mat, Map<String, Mat> output, RegionRequest requestPadded, Padding padding, Geometry mask, boolean excludeOnBounds, MatPool buffers, int nBands, ForkJoinPool pool) {
+		var extracted = new ArrayList<Mat>();
+		try {
+			return decodeTile(mat, output, requestPadded, padding, mask, excludeOnBounds, buffers, nBands, pool, extracted);
+		} finally {
+			extracted.forEach(m -> buffers.release(m));
+		}
+	}
+	
+	/**
+	 * Convert the model output for a single tile into potential nuclei, adding any buffers 
+	 * requested from the pool to a list so that they can be released by the caller.
+	 */
+	private List<PotentialNucleus> decodeTile(Mat mat, Map<String, Mat> output, RegionRequest requestPadded, Padding padding, Geometry mask, boolean excludeOnBounds, MatPool buffers, int nBands, ForkJoinPool pool, List<Mat> extracted) {
+		
+		boolean isFirstRun = firstRun.getAndSet(false);
+		Mat matProb = null;
+		Mat matRays = null;
+		Mat matClassifications = null;
+		if (output.size() == 1) {
+			// Split channels to extract probability, ray and (possibly) classification images
+			var matOutput = output.values().iterator().next();
+			int nChannels = matOutput.channels();
+			int nClassifications = classifications == null ? 0 : classifications.size();
+			int nRays = nChannels - 1 - nClassifications;
+			matProb = extractChannels(matOutput, buffers, 0);
+			extracted.add(matProb);
+			matRays = extractChannels(matOutput, buffers, range(1, nRays+1));
+			extracted.add(matRays);
+			if (nClassifications > 0) {
+				matClassifications = extractChannels(matOutput, buffers, range(nRays+1, nChannels));
+				extracted.add(matClassifications);
+			}
+		} else {
+			// Split output as needed
+			// We require that probabilities are single-channel, and there are more rays than classifications
+			for (var entry : output.entrySet()) {
+				var temp = entry.getValue();
+				if (temp.channels() == 1)
+					matProb = temp;
+				else if (matRays == null)
+					matRays = temp;
+				else {
+					if (temp.channels() > matRays.channels()) {
+						matClassifications = matRays;
+						matRays = temp;
+					} else
+						matClassifications = temp;
 				}
 			}
-			
-			// Depending upon model export, we might have a half resolution prediction that needs to be rescaled
-			long inputWidth = mat.cols();
-			long inputHeight = mat.rows();
-			if (inputWidth <= 0 || inputHeight <= 0)
-				throw new RuntimeException("Mat dimensions are unknown!");
-			double scaleX = Math.round((double)inputWidth / matProb.cols());
-			double scaleY = Math.round((double)inputHeight / matProb.rows());
-			if (scaleX != 1.0 || scaleY != 1.0) {
-				if (scaleX != 2.0 || scaleY != 2.0)
-					logger.warn("Unexpected StarDist rescaling x={}, y={}", scaleX, scaleY);
+		}
+		
+		// Warn if we have weird dimensions on the first run
+		if (isFirstRun) {
+			if (classifications != null && !classifications.isEmpty()) {
+				int nClassifications = classifications.size();
+				int nChannels = matClassifications == null ? 0 : matClassifications.channels();
+				// We might not specify a background classification, but if we have very different numbers from the prediction we should report that
+				if (nClassifications > nChannels || nClassifications < nChannels-1)
+					logger.warn("{} classifications provided, {} available in the prediction", nClassifications, nChannels);
 				else
-					logger.debug("StarDist rescaling x={}, y={}", scaleX, scaleY);
+					logger.debug("{} classifications provided, {} available in the prediction", nClassifications, nChannels);
 			}
-			
-			// Convert predictions to potential nuclei
-			FloatIndexer indexerProb = matProb.createIndexer();
-			FloatIndexer indexerRays = matRays.createIndexer();
-			FloatIndexer indexerClassifications = matClassifications == null ? null : matClassifications.createIndexer();
-			nuclei = createNuclei(indexerProb, indexerRays, indexerClassifications,
-					requestPadded.getDownsample(),
-					requestPadded.getX() - requestPadded.getDownsample() * padding.getX1(),
-					requestPadded.getY() - requestPadded.getDownsample() * padding.getY1(),
-					scaleX,
-					scaleY,
-					mask);
-			
-			// Exclude anything that overlaps the right/bottom boundary of a region
-			if (excludeOnBounds) {
-				var iter = nuclei.iterator();
-				while (iter.hasNext()) {
-					var n = iter.next();
-					var env = n.geometry.getEnvelopeInternal();
-					if (env.getMaxX() >= requestPadded.getMaxX() || env.getMaxY() >= requestPadded.getMaxY())
-						iter.remove();
-				}
+		}
+		
+		// Depending upon model export, we might have a half resolution prediction that needs to be rescaled
+		long inputWidth = mat.cols();
+		long inputHeight = mat.rows();
+		if (inputWidth <= 0 || inputHeight <= 0)
+			throw new RuntimeException("Mat dimensions are unknown!");
+		double scaleX = Math.round((double)inputWidth / matProb.cols());
+		double scaleY = Math.round((double)inputHeight / matProb.rows());
+		if (scaleX != 1.0 || scaleY != 1.0) {
+			if (scaleX != 2.0 || scaleY != 2.0)
+				logger.warn("Unexpected StarDist rescaling x={}, y={}", scaleX, scaleY);
+			else
+				logger.debug("StarDist rescaling x={}, y={}", scaleX, scaleY);
+		}
+		
+		// Convert predictions to potential nuclei
+		// Access the values directly from native memory, since this is a hotspot
+		var nuclei = createNuclei(
+				new PredictionMap(matProb),
+				new PredictionMap(matRays),
+				matClassifications == null ? null : new PredictionMap(matClassifications),
+				requestPadded.getDownsample(),
+				requestPadded.getX() - requestPadded.getDownsample() * padding.getX1(),
+				requestPadded.getY() - requestPadded.getDownsample() * padding.getY1(),
+				scaleX,
+				scaleY,
+				mask,
+				nBands,
+				pool);
+		
+		// Exclude anything that overlaps the right/bottom boundary of a region
+		if (excludeOnBounds) {
+			var iter = nuclei.iterator();
+			while (iter.hasNext()) {
+				var n = iter.next();
+				var env = n.getEnvelope();
+				if (env.getMaxX() >= requestPadded.getMaxX() || env.getMaxY() >= requestPadded.getMaxY())
+					iter.remove();
+			}
+		}
+		
+		// The decode stage already processes tiles in parallel
+		return filterNuclei(nuclei, false);
+	}
+	
+	
+	/**
+	 * A region (usually defined by a parent ROI) within which cells should be detected.
+	 */
+	private static class DetectionRegion {
+		
+		// Prepared, since it's used for many tests of whether tiles and objects cross the boundary
+		private final PreparedGeometry preparedMask;
+		private final RegionRequest request;
+		private final PixelCalibration resolution;
+		private final List<TileRequest> tiles;
+		
+		private ImageDataOp readOp;
+		private ImageOp preprocessOp;
+		
+		// Estimated memory for a padded tile, after preprocessing
+		private long bytesPerTile;
+		
+		// Exact size of the input to the model, if tiles should always have the same shape
+		private int inputWidth = -1;
+		private int inputHeight = -1;
+		
+		private final List<TileTask> completedTiles = new ArrayList<>();
+		
+		DetectionRegion(PreparedGeometry preparedMask, RegionRequest request, PixelCalibration resolution, List<TileRequest> tiles) {
+			this.preparedMask = preparedMask;
+			this.request = request;
+			this.resolution = resolution;
+			this.tiles = tiles;
+		}
+		
+	}
+	
+	
+	/**
+	 * A single tile within a region, as it is passed through the tile pipeline.
+	 */
+	private static class TileTask {
+		
+		private final DetectionRegion region;
+		private final RegionRequest request;
+		private final MatPool buffers;
+		
+		// Maximum number of threads that may be used to decode this tile, and the pool to use if > 1
+		private int decodeBands = 1;
+		private ForkJoinPool decodePool;
+		
+		private RegionRequest requestPadded;
+		private Geometry mask;
+		private Mat mat;
+		private Padding padding;
+		private Map<String, Mat> output;
+		
+		// Nuclei contained within the (unpadded) tile, and those that extend beyond it
+		private List<PotentialNucleus> nuclei = Collections.emptyList();
+		private List<PotentialNucleus> seamNuclei = Collections.emptyList();
+		
+		TileTask(DetectionRegion region, RegionRequest request, MatPool buffers) {
+			this.region = region;
+			this.request = request;
+			this.buffers = buffers;
+		}
+		
+		/**
+		 * Move any nuclei that extend beyond the tile into a separate list, since these are 
+		 * the only ones that can overlap with nuclei from another tile.
+		 */
+		void splitSeamNuclei() {
+			var bounds = new Envelope(request.getX(), request.getMaxX(), request.getY(), request.getMaxY());
+			var interior = new ArrayList<PotentialNucleus>();
+			var seam = new ArrayList<PotentialNucleus>();
+			for (var nucleus : nuclei) {
+				if (bounds.covers(nucleus.getEnvelope()))
+					interior.add(nucleus);
+				else
+					seam.add(nucleus);
+			}
+			nuclei = interior;
+			seamNuclei = seam;
+		}
+		
+		/**
+		 * Release the native memory retained for the tile.
+		 * The input is returned to the buffer pool, if it came from there.
+		 */
+		void release() {
+			if (mat != null) {
+				buffers.release(mat);
+				mat = null;
+			}
+			if (output != null) {
+				output.values().forEach(m -> m.releaseReference());
+				output = null;
 			}
-			
 		}
 		
-		return filterNuclei(nuclei);
 	}
 	
 	
@@ -1498,147 +2559,929 @@ public class StarDist2D implements AutoCloseable {
 	
 	/**
 	 * Create a potential nucleus.
-	 * @param indexerProb probability values
-	 * @param indexerRays ray values
-	 * @param indexerClass classification probabilities (optional)
+	 * @param probMap probability values
+	 * @param rayMap ray values
+	 * @param classMap classification probabilities (optional)
 	 * @param downsample downsample for the region request, used to convert coordinates
 	 * @param originX x-coordinate for the top left of the image, used to convert coordinates
 	 * @param originY y-coordinate for the top left of the image, used to convert coordinates
 	 * @param scaleX scaling to apply to x pixel index; normally 1.0, but may be 2.0 if passing downsampled output
 	 * @param scaleY scaling to apply to y pixel index; normally 1.0, but may be 2.0 if passing downsampled output
 	 * @param mask optional geometry mask, in the full image space
+	 * @param maxBands maximum number of horizontal bands to decode in parallel; if 1, decoding is sequential
+	 * @param pool pool used to decode bands in parallel; if null, decoding is sequential
 	 * @return list of potential nuclei, sorted in descending order of probability
 	 */
-	private List<PotentialNucleus> createNuclei(FloatIndexer indexerProb, FloatIndexer indexerRays, FloatIndexer indexerClass, double downsample, double originX, double originY, double scaleX, double scaleY, Geometry mask) {
-	    long[] sizes = indexerProb.sizes();
-	    long[] inds = new long[3];
-	    int h = (int)sizes[0];
-	    int w = (int)sizes[1];
+	private List<PotentialNucleus> createNuclei(PredictionMap probMap, PredictionMap rayMap, PredictionMap classMap, double downsample, double originX, double originY, double scaleX, double scaleY, Geometry mask, int maxBands, ForkJoinPool pool) {
+	    
+	    // Rasterize the mask at the resolution of the prediction, so that most candidates can be 
+	    // checked with a single lookup
+	    var maskLookup = mask == null ? null : new RasterizedMask(mask, originX, originY, 
+	    		scaleX * downsample, scaleY * downsample, probMap.width, probMap.height);
+	    
+	    // Find candidate pixels in descending order of probability
+	    // (this is done for the full map, so that local maxima aren't affected by bands)
+	    int[] candidates = probMap.findIndicesAbove(threshold, candidateRadius);
+	    
+	    // If we have many candidates, decode horizontal bands in parallel - 
+	    // this helps when there are fewer tiles than decode threads, so the decode stage can't use them all
+	    int nBands = Math.min(maxBands, probMap.height / MIN_DECODE_BAND_HEIGHT);
+	    if (nBands <= 1 || pool == null || candidates.length < MIN_PARALLEL_DECODE_CANDIDATES)
+	    	return createNuclei(candidates, probMap, rayMap, classMap, downsample, originX, originY, scaleX, scaleY, maskLookup);
+	    
+	    // Split candidates into bands, retaining the order within each band
+	    int bandHeight = (int)Math.ceil(probMap.height / (double)nBands);
+	    int rowLength = probMap.width * bandHeight;
+	    int[] counts = new int[nBands];
+	    for (int ind : candidates)
+	    	counts[ind / rowLength]++;
+	    int[][] bands = new int[nBands][];
+	    for (int b = 0; b < nBands; b++)
+	    	bands[b] = new int[counts[b]];
+	    Arrays.fill(counts, 0);
+	    for (int ind : candidates) {
+	    	int b = ind / rowLength;
+	    	bands[b][counts[b]++] = ind;
+	    }
+	    
+	    // Use the shared decode pool, so that we don't exceed the number of decode threads
+	    var nuclei = computeInPool(pool, () -> IntStream.range(0, nBands)
+	    		.parallel()
+	    		.mapToObj(b -> createNuclei(bands[b], probMap, rayMap, classMap, downsample, originX, originY, scaleX, scaleY, maskLookup))
+	    		.flatMap(List::stream)
+	    		.collect(Collectors.toCollection(ArrayList::new)));
+	    if (nuclei == null)
+	    	return new ArrayList<>();
+	    
+	    // Merge bands in descending order of probability; ties retain the original order (since the bands are in order)
+	    return sortByProbability(nuclei);
+	}
+	
+	
+	/**
+	 * Create potential nuclei for the specified candidate pixels.
+	 * This may be called from multiple threads for different candidates.
+	 * @param candidates indices of candidate pixels in the probability map
+	 * @param probMap probability values
+	 * @param rayMap ray values
+	 * @param classMap classification probabilities (optional)
+	 * @param downsample downsample for the region request, used to convert coordinates
+	 * @param originX x-coordinate for the top left of the image, used to convert coordinates
+	 * @param originY y-coordinate for the top left of the image, used to convert coordinates
+	 * @param scaleX scaling to apply to x pixel index; normally 1.0, but may be 2.0 if passing downsampled output
+	 * @param scaleY scaling to apply to y pixel index; normally 1.0, but may be 2.0 if passing downsampled output
+	 * @param mask optional rasterized mask, in the full image space
+	 * @return list of potential nuclei, in the same order as the candidates
+	 */
+	private List<PotentialNucleus> createNuclei(int[] candidates, PredictionMap probMap, PredictionMap rayMap, PredictionMap classMap, double downsample, double originX, double originY, double scaleX, double scaleY, RasterizedMask mask) {
+	    int w = probMap.width;
 	    
-	    int nRays = (int)indexerRays.size(2);
-	    double[][] rays = sinCosAngles(nRays);
-	    double[] raySine = rays[0];
-	    double[] rayCosine = rays[1];
+	    var probValues = probMap.values;
+	    int probStride = probMap.nChannels;
+	    var rayValues = rayMap.values;
+	    int nRays = rayMap.nChannels;
+	    var shape = StarConvexPolygons.getInstance(nRays);
 	    
-	    int nClasses = indexerClass == null ? 0 : (int)indexerClass.size(2);
+	    var classValues = classMap == null ? null : classMap.values;
+	    int nClasses = classMap == null ? 0 : classMap.nChannels;
 
 	    var nuclei = new ArrayList<PotentialNucleus>();
 	    
-	    var locator = mask == null ? null : new SimplePointInAreaLocator(mask);
-
 	    var factory = GeometryTools.getDefaultFactory();
 	    var precisionModel = factory.getPrecisionModel();
-	    for (int y = 0; y < h; y++) {
-	        inds[0] = y;
-	        for (int x = 0; x < w; x++) {
-	            inds[1] = x;
-	            inds[2] = 0;
-	            double prob = indexerProb.get(inds);
-	            if (prob < threshold)
-	                continue;
-	            var coords = new ArrayList<Coordinate>();
-	            Coordinate lastCoord = null;
-	            for (int a = 0; a < nRays; a++) {
-	                inds[2] = a;
-	                double val = indexerRays.get(inds);
-	                // We can get NaN
-	                if (!Double.isFinite(val))
-	                	continue;
-	                // Python implementation imposes a minimum value
-	                val = Math.max(1e-3, val);
-	                // Create coordinate & add if it is distinct
-	                double xx = precisionModel.makePrecise(originX + (x * scaleX + val * rayCosine[a]) * downsample);
-	                double yy = precisionModel.makePrecise(originY + (y * scaleY + val * raySine[a]) * downsample);
-	                var coord = new Coordinate(xx, yy);
-	                if (!Objects.equals(coord, lastCoord))
-	                	coords.add(coord);
-	            }
-	            // We need at least 3 for a reasonable nucleus
-	            if (coords.size() < 3)
-	            	continue;
-	            else if (!coords.get(0).equals(coords.get(coords.size()-1)))
-	            	coords.add(coords.get(0));
-	            try {
-		            var polygon = factory.createPolygon(coords.toArray(Coordinate[]::new));
-		            if (locator == null || locator.locate(new Centroid(polygon).getCentroid()) != Location.EXTERIOR) {
-		            	var geom = simplify(polygon);
-		            	// Get classification, if available
-		            	int classification = -1;
-		            	if (indexerClass != null) {
-		            		double maxProb = Double.NEGATIVE_INFINITY;
-			            	for (int c = 0; c < nClasses; c++) {
-			            		inds[2] = c;
-			            		double probClass = indexerClass.get(inds);
-			            		if (probClass > maxProb) {
-				            		classification = c;
-				            		maxProb = probClass;
-			            		}
-			            	}
-		            	}
-		            	if (classification != 0 || keepClassifiedBackground)
-		            		nuclei.add(new PotentialNucleus(geom, prob, classification));
-		            }
-	            } catch (Exception e) {
-                    logger.warn("Error creating nucleus: {}", e.getMessage(), e);
-	            }
+	    
+	    // Reusable buffers for the rays and polygon vertices (including closing vertex), 
+	    // so that we only create objects for nuclei we will keep
+	    float[] rays = new float[nRays];
+	    float[] classProbs = new float[nClasses];
+	    double[] xs = new double[nRays + 1];
+	    double[] ys = new double[nRays + 1];
+	    var centroid = new Coordinate();
+	    
+	    for (int ind : candidates) {
+	    	int y = ind / w;
+	    	int x = ind - y * w;
+	        double prob = probValues.get(ind * probStride);
+	        if (prob < threshold)
+	            continue;
+	        rayValues.get(ind * nRays, rays);
+	        double cx = originX + x * scaleX * downsample;
+	        double cy = originY + y * scaleY * downsample;
+	        int n = shape.computeVertices(cx, cy, rays, downsample, precisionModel, xs, ys);
+	        // We need at least 3 distinct vertices for a reasonable nucleus
+	        if (n < 4)
+	        	continue;
+	        try {
+	        	if (mask != null) {
+	        		if (!computeCentroid(xs, ys, n, centroid))
+	        			centroid = new Centroid(StarConvexPolygons.createPolygon(factory, xs, ys, n)).getCentroid();
+	        		if (!mask.contains(centroid))
+	        			continue;
+	        	}
+	        	// Get classification, if available
+	        	int classification = -1;
+	        	if (classValues != null) {
+	        		classValues.get(ind * nClasses, classProbs);
+	        		float maxProb = Float.NEGATIVE_INFINITY;
+	        		for (int c = 0; c < nClasses; c++) {
+	        			float probClass = classProbs[c];
+	        			if (probClass > maxProb) {
+	        				classification = c;
+	        				maxProb = probClass;
+	        			}
+	        		}
+	        	}
+	        	if (classification != 0 || keepClassifiedBackground) {
+	        		// Geometries are created later, only if needed
+	        		var envelope = new Envelope();
+	        		for (int i = 0; i < n; i++)
+	        			envelope.expandToInclude(xs[i], ys[i]);
+	        		nuclei.add(new PotentialNucleus(shape, cx, cy, rays.clone(), downsample, envelope, prob, classification));
+	        	}
+	        } catch (Exception e) {
+                logger.warn("Error creating nucleus: {}", e.getMessage(), e);
 	        }
 	    }
 	    return nuclei;
 	}
+	
+	
+	/**
+	 * Compute the area-weighted centroid of a closed ring, without creating a geometry.
+	 * @param xs x-coordinates, where the last vertex is the same as the first
+	 * @param ys y-coordinates, where the last vertex is the same as the first
+	 * @param n number of vertices
+	 * @param centroid coordinate to store the result
+	 * @return true if the centroid could be computed, false if the area is zero
+	 */
+	private static boolean computeCentroid(double[] xs, double[] ys, int n, Coordinate centroid) {
+		// Use the first vertex as the origin to reduce rounding errors
+		double x0 = xs[0];
+		double y0 = ys[0];
+		double area2 = 0;
+		double cx = 0;
+		double cy = 0;
+		for (int i = 0; i < n - 1; i++) {
+			double x1 = xs[i] - x0;
+			double y1 = ys[i] - y0;
+			double x2 = xs[i+1] - x0;
+			double y2 = ys[i+1] - y0;
+			double cross = x1 * y2 - x2 * y1;
+			area2 += cross;
+			cx += (x1 + x2) * cross;
+			cy += (y1 + y2) * cross;
+		}
+		if (area2 == 0)
+			return false;
+		centroid.x = x0 + cx / (3 * area2);
+		centroid.y = y0 + cy / (3 * area2);
+		return true;
+	}
+	
+	
+	/**
+	 * Interleaved 32-bit float values from a prediction, accessed directly from native memory.
+	 */
+	private static class PredictionMap {
+		
+		private final Mat mat;
+		private final int width;
+		private final int height;
+		private final int nChannels;
+		private final FloatBuffer values;
+		
+		/**
+		 * Create a map from a Mat.
+		 * This will be converted to 32-bit float and made continuous, if necessary - 
+		 * so should be called within a PointerScope.
+		 * @param mat
+		 */
+		PredictionMap(Mat mat) {
+			if (mat.depth() != opencv_core.CV_32F) {
+				var temp = new Mat();
+				mat.convertTo(temp, opencv_core.CV_32F);
+				mat = temp;
+			} else if (!mat.isContinuous())
+				mat = mat.clone();
+			this.mat = mat;
+			this.width = mat.cols();
+			this.height = mat.rows();
+			this.nChannels = mat.channels();
+			this.values = mat.createBuffer();
+		}
+		
+		/**
+		 * Find the pixels with a value &ge; the threshold, in the first channel.
+		 * The scan is performed by OpenCV; this is helpful because most pixels are usually background.
+		 * @param threshold
+		 * @param radius if &gt; 0, only return pixels with the maximum value within a square neighborhood
+		 *               with this radius
+		 * @return indices of the pixels (y * width + x), sorted in descending order of value (and in 
+		 *         ascending order of index for pixels with the same value)
+		 */
+		int[] findIndicesAbove(double threshold, int radius) {
+			long[] keys;
+			try (var scope = new PointerScope()) {
+				var matValues = mat;
+				if (nChannels > 1) {
+					matValues = new Mat();
+					opencv_core.extractChannel(mat, matValues, 0);
+				}
+				
+				// Threshold is strict and applied to 32-bit values, so adjust to ensure we don't miss anything 
+				// (the caller should check each candidate against the threshold anyway)
+				float thresholdFloat = (float)threshold;
+				if (thresholdFloat > threshold)
+					thresholdFloat = Math.nextDown(thresholdFloat);
+				var matBinary = new Mat();
+				opencv_imgproc.threshold(matValues, matBinary, Math.nextDown(thresholdFloat), 255, opencv_imgproc.THRESH_BINARY);
+				matBinary.convertTo(matBinary, opencv_core.CV_8U);
+				
+				// Retain only local maxima, if needed
+				if (radius > 0) {
+					var matMax = new Mat();
+					var kernel = opencv_imgproc.getStructuringElement(
+							opencv_imgproc.MORPH_RECT, new Size(radius*2+1, radius*2+1));
+					opencv_imgproc.dilate(matValues, matMax, kernel);
+					var matIsMax = new Mat();
+					opencv_core.compare(matValues, matMax, matIsMax, opencv_core.CMP_GE);
+					opencv_core.bitwise_and(matBinary, matIsMax, matBinary);
+				}
+				
+				int n = opencv_core.countNonZero(matBinary);
+				if (n == 0)
+					return new int[0];
+				var matLocations = new Mat();
+				opencv_core.findNonZero(matBinary, matLocations);
+				IntBuffer locations = matLocations.createBuffer();
+				keys = new long[n];
+				for (int i = 0; i < n; i++) {
+					int ind = locations.get(i*2+1) * width + locations.get(i*2);
+					keys[i] = sortKey(values.get(ind * nChannels), ind);
+				}
+			}
+			Arrays.sort(keys);
+			int n = keys.length;
+			int[] indices = new int[n];
+			for (int i = 0; i < n; i++)
+				indices[i] = Integer.MAX_VALUE - (int)keys[n - 1 - i];
+			return indices;
+		}
+		
+		/**
+		 * Create a key that can be used to sort values (in ascending order) and then indices 
+		 * (in descending order) as primitive longs.
+		 */
+		private static long sortKey(float value, int ind) {
+			// Flip the bits of negative values, so that the ordering of ints matches the ordering of floats
+			int bits = Float.floatToIntBits(value);
+			bits ^= (bits >> 31) & 0x7fffffff;
+			return ((long)bits << 32) | (Integer.MAX_VALUE - ind);
+		}
+		
+	}
 
 
-	private static List<PotentialNucleus> filterNuclei(List<PotentialNucleus> potentialNuclei) {
+	/**
+	 * Resolve overlaps between nuclei detected in different tiles of the same region.
+	 * <p>
+	 * Overlaps within each tile have already been resolved, and tiles don't overlap. 
+	 * This means that two nuclei from different tiles can only overlap if at least one of them 
+	 * extends beyond its own tile.
+	 * Therefore only these 'seam' nuclei, and any nuclei they might touch, need to be filtered again - 
+	 * all other nuclei are retained unchanged.
+	 * @param tiles the completed tiles, with seam nuclei already split
+	 * @return the nuclei to retain
+	 * @see #resolveTileOverlaps(List, List, OverlapMethod, double)
+	 */
+	private List<PotentialNucleus> resolveTileOverlaps(List<TileTask> tiles) {
+		return resolveTileOverlaps(
+				tiles.stream().map(t -> t.nuclei).toList(),
+				tiles.stream().map(t -> t.seamNuclei).toList(),
+				overlapMethod, overlapThreshold);
+	}
+	
+	
+	/**
+	 * Resolve overlaps between nuclei detected in different tiles.
+	 * <p>
+	 * The result is the same as resolving overlaps for all the nuclei together, in the order 
+	 * given by the tiles (with the interior nuclei of each tile before its seam nuclei).
+	 * Parallel streams are used, so this should be called from the postprocessing pool.
+	 * @param tileNuclei the nuclei that lie entirely within each tile, after resolving overlaps within the tile
+	 * @param tileSeamNuclei the nuclei that extend beyond each tile, after resolving overlaps within the tile
+	 * @param overlapMethod the method used to resolve overlaps
+	 * @param overlapThreshold the overlap threshold, used with {@link OverlapMethod#RAYS}
+	 * @return the nuclei to retain, in descending order of probability
+	 */
+	static List<PotentialNucleus> resolveTileOverlaps(List<List<PotentialNucleus>> tileNuclei, List<List<PotentialNucleus>> tileSeamNuclei, 
+			OverlapMethod overlapMethod, double overlapThreshold) {
+		
+		int nTiles = tileNuclei.size();
+		
+		// Index the seam nuclei, recording the tile that detected them
+		var seamGrid = new EnvelopeGrid(meanNucleusSize(tileNuclei.stream().flatMap(List::stream).toList()));
+		var seamTiles = new int[tileSeamNuclei.stream().mapToInt(List::size).sum()];
+		for (int t = 0; t < nTiles; t++) {
+			for (var nucleus : tileSeamNuclei.get(t))
+				seamTiles[seamGrid.insert(nucleus.getEnvelope())] = t;
+		}
+		
+		// Identify the interior nuclei affected by the seams - this is independent for each tile
+		var affected = IntStream.range(0, nTiles)
+				.parallel()
+				.mapToObj(t -> findSeamAffectedNuclei(tileNuclei.get(t), tileSeamNuclei.get(t), t, seamGrid, seamTiles))
+				.toList();
+		
+		var toFilter = new ArrayList<PotentialNucleus>();
+		int nUnaffected = 0;
+		for (int t = 0; t < nTiles; t++) {
+			var nuclei = tileNuclei.get(t);
+			var tileAffected = affected.get(t);
+			for (int i = 0; i < nuclei.size(); i++) {
+				if (tileAffected[i])
+					toFilter.add(nuclei.get(i));
+				else
+					nUnaffected++;
+			}
+			toFilter.addAll(tileSeamNuclei.get(t));
+		}
+		logger.debug("Resolving overlaps for {}/{} nuclei near tile boundaries", toFilter.size(), toFilter.size() + nUnaffected);
+		
+		// Nuclei may already have been trimmed within their tile, so ignore tiny overlaps caused by rounding
+		var filtered = new HashSet<>(filterNuclei(toFilter, overlapMethod, overlapThreshold, true, true));
+		
+		// Combine with the unaffected nuclei, in the order we would have without splitting
+		// (the sort is stable, so ties retain the tile order)
+		var retained = new ArrayList<PotentialNucleus>(filtered.size() + nUnaffected);
+		for (int t = 0; t < nTiles; t++) {
+			var nuclei = tileNuclei.get(t);
+			var tileAffected = affected.get(t);
+			for (int i = 0; i < nuclei.size(); i++) {
+				var nucleus = nuclei.get(i);
+				if (!tileAffected[i] || filtered.contains(nucleus))
+					retained.add(nucleus);
+			}
+			for (var nucleus : tileSeamNuclei.get(t)) {
+				if (filtered.contains(nucleus))
+					retained.add(nucleus);
+			}
+		}
+		return sortByProbability(retained);
+	}
+	
+	
+	/**
+	 * Find the interior nuclei of a tile that need to be included when resolving overlaps across tiles.
+	 * These are nuclei that might overlap a seam nucleus from another tile, along with any nuclei that might 
+	 * overlap them or a seam nucleus from the same tile (since these can influence the result).
+	 * @param nuclei the interior nuclei of the tile
+	 * @param seamNuclei the seam nuclei of the tile
+	 * @param tileIndex index of the tile
+	 * @param seamGrid index of seam nuclei envelopes
+	 * @param seamTiles index of the tile for each seam nucleus, by its id in the grid
+	 * @return a flag for each interior nucleus, true if it is affected
+	 */
+	private static boolean[] findSeamAffectedNuclei(List<PotentialNucleus> nuclei, List<PotentialNucleus> seamNuclei, 
+			int tileIndex, EnvelopeGrid seamGrid, int[] seamTiles) {
+		var affected = new boolean[nuclei.size()];
+		var results = new EnvelopeGrid.Results();
+		
+		// Find nuclei that might overlap with another tile's seam nuclei
+		EnvelopeGrid localGrid = null;
+		for (int i = 0; i < nuclei.size(); i++) {
+			var envelope = nuclei.get(i).getEnvelope();
+			seamGrid.query(envelope, results);
+			for (int k = 0; k < results.size(); k++) {
+				if (seamTiles[results.get(k)] != tileIndex) {
+					affected[i] = true;
+					if (localGrid == null)
+						localGrid = new EnvelopeGrid(meanNucleusSize(nuclei));
+					localGrid.insert(envelope);
+					break;
+				}
+			}
+		}
+		if (localGrid == null && !seamNuclei.isEmpty())
+			localGrid = new EnvelopeGrid(meanNucleusSize(seamNuclei));
+		for (var nucleus : seamNuclei)
+			localGrid.insert(nucleus.getEnvelope());
+		if (localGrid == null)
+			return affected;
+		
+		// Include their neighbors within the tile
+		// These won't change, but may be needed for context (e.g. painted pixels with OverlapMethod.RASTER)
+		var neighbors = new boolean[nuclei.size()];
+		for (int i = 0; i < nuclei.size(); i++) {
+			if (affected[i])
+				continue;
+			localGrid.query(nuclei.get(i).getEnvelope(), results);
+			neighbors[i] = results.size() > 0;
+		}
+		for (int i = 0; i < nuclei.size(); i++)
+			affected[i] |= neighbors[i];
+		return affected;
+	}
+	
+	
+	/**
+	 * Sort potential nuclei in descending order of probability, retaining the input order for ties.
+	 * <p>
+	 * This uses a primitive sort of keys created with {@link PredictionMap#sortKey(float, int)}, which 
+	 * gives the same order as a stable sort with a comparator, but avoids boxing and comparator calls.
+	 * Probabilities are read from float prediction maps, so converting them to float doesn't change the order.
+	 * @param nuclei
+	 * @return a new list containing the sorted nuclei
+	 */
+	static List<PotentialNucleus> sortByProbability(List<PotentialNucleus> nuclei) {
+		var array = nuclei.toArray(PotentialNucleus[]::new);
+		int n = array.length;
+		var keys = new long[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = PredictionMap.sortKey((float)array[i].getProbability(), i);
+		// Keys are in ascending order of probability, and descending order of index for ties
+		Arrays.sort(keys);
+		var sorted = new ArrayList<PotentialNucleus>(n);
+		for (int i = n - 1; i >= 0; i--)
+			sorted.add(array[Integer.MAX_VALUE - (int)keys[i]]);
+		return sorted;
+	}
+	
+	
+	/**
+	 * Get the mean width or height (whichever is larger) of the nuclei envelopes, 
+	 * which is a suitable cell size for an {@link EnvelopeGrid}.
+	 * @param nuclei
+	 * @return the mean size, or 1 if this cannot be computed
+	 */
+	private static double meanNucleusSize(Collection<PotentialNucleus> nuclei) {
+		double sum = 0;
+		for (var nucleus : nuclei) {
+			var env = nucleus.getEnvelope();
+			sum += Math.max(env.getWidth(), env.getHeight());
+		}
+		double size = sum / nuclei.size();
+		return size > 0 && Double.isFinite(size) ? size : 1.0;
+	}
+	
+	
+	/**
+	 * Resolve overlaps between potential nuclei, using the method specified by the builder.
+	 * @param potentialNuclei
+	 * @param parallel if true, large numbers of nuclei may be processed in parallel using the current 
+	 *                 {@link ForkJoinPool}; this should only be used from the postprocessing pool
+	 * @return the nuclei to retain
+	 */
+	private List<PotentialNucleus> filterNuclei(List<PotentialNucleus> potentialNuclei, boolean parallel) {
+		return filterNuclei(potentialNuclei, overlapMethod, overlapThreshold, parallel);
+	}
+	
+	
+	/**
+	 * Resolve overlaps between potential nuclei.
+	 * @param potentialNuclei
+	 * @param overlapMethod the method used to resolve overlaps
+	 * @param overlapThreshold the overlap threshold, used with {@link OverlapMethod#RAYS}
+	 * @param parallel if true, large numbers of nuclei may be processed in parallel using the current 
+	 *                 {@link ForkJoinPool}; this should only be used from the postprocessing pool
+	 * @return the nuclei to retain, in descending order of probability
+	 */
+	static List<PotentialNucleus> filterNuclei(List<PotentialNucleus> potentialNuclei, OverlapMethod overlapMethod, double overlapThreshold, boolean parallel) {
+		return filterNuclei(potentialNuclei, overlapMethod, overlapThreshold, parallel, false);
+	}
+	
+	
+	/**
+	 * Resolve overlaps between potential nuclei, optionally ignoring negligible overlaps.
+	 * @param potentialNuclei
+	 * @param overlapMethod the method used to resolve overlaps
+	 * @param overlapThreshold the overlap threshold, used with {@link OverlapMethod#RAYS}
+	 * @param parallel if true, large numbers of nuclei may be processed in parallel using the current 
+	 *                 {@link ForkJoinPool}; this should only be used from the postprocessing pool
+	 * @param ignoreNegligibleOverlaps if true, ignore very small overlaps with {@link OverlapMethod#GEOMETRY} 
+	 *                                 for nuclei that have already been trimmed
+	 * @return the nuclei to retain, in descending order of probability
+	 */
+	private static List<PotentialNucleus> filterNuclei(List<PotentialNucleus> potentialNuclei, OverlapMethod overlapMethod, double overlapThreshold, 
+			boolean parallel, boolean ignoreNegligibleOverlaps) {
+		if (parallel && potentialNuclei.size() >= MIN_PARALLEL_FILTER_NUCLEI)
+			return filterNucleiPartitioned(potentialNuclei, overlapMethod, overlapThreshold, ignoreNegligibleOverlaps);
+		return filterNuclei(potentialNuclei, Collections.emptySet(), overlapMethod, overlapThreshold, ignoreNegligibleOverlaps);
+	}
+	
+	
+	/**
+	 * Resolve overlaps between potential nuclei, where some nuclei are already known to be retained.
+	 * @param potentialNuclei
+	 * @param retained nuclei that have already been retained; these may still cause others to be 
+	 *                 discarded or modified, but are not themselves changed
+	 * @param overlapMethod the method used to resolve overlaps
+	 * @param overlapThreshold the overlap threshold, used with {@link OverlapMethod#RAYS}
+	 * @return the nuclei to retain, in descending order of probability
+	 */
+	static List<PotentialNucleus> filterNuclei(List<PotentialNucleus> potentialNuclei, Set<PotentialNucleus> retained, 
+			OverlapMethod overlapMethod, double overlapThreshold) {
+		return filterNuclei(potentialNuclei, retained, overlapMethod, overlapThreshold, false);
+	}
+	
+	
+	/**
+	 * Resolve overlaps between potential nuclei, where some nuclei are already known to be retained, 
+	 * optionally ignoring negligible overlaps.
+	 * @param potentialNuclei
+	 * @param retained nuclei that have already been retained; these may still cause others to be 
+	 *                 discarded or modified, but are not themselves changed
+	 * @param overlapMethod the method used to resolve overlaps
+	 * @param overlapThreshold the overlap threshold, used with {@link OverlapMethod#RAYS}
+	 * @param ignoreNegligibleOverlaps if true, ignore very small overlaps with {@link OverlapMethod#GEOMETRY} 
+	 *                                 for nuclei that have already been trimmed
+	 * @return the nuclei to retain, in descending order of probability
+	 */
+	static List<PotentialNucleus> filterNuclei(List<PotentialNucleus> potentialNuclei, Set<PotentialNucleus> retained, 
+			OverlapMethod overlapMethod, double overlapThreshold, boolean ignoreNegligibleOverlaps) {
+		switch (overlapMethod) {
+		case RAYS:
+			return filterNucleiByRays(potentialNuclei, retained, overlapThreshold);
+		case RASTER:
+			return filterNucleiByRaster(potentialNuclei, retained);
+		case GEOMETRY:
+		default:
+			return filterNucleiByGeometry(potentialNuclei, retained, ignoreNegligibleOverlaps);
+		}
+	}
+	
+	
+	/**
+	 * Resolve overlaps in parallel, by dividing space into a grid of cells.
+	 * <p>
+	 * The result is identical to {@link #filterNuclei(List, Set, OverlapMethod, double)}, because each method only allows a nucleus 
+	 * to be affected by the higher-probability nuclei that it overlaps.
+	 * A nucleus is 'local' if it lies inside a single cell, and all the higher-probability nuclei it might overlap 
+	 * are local too - so its fate can be decided within the cell alone. 
+	 * Cells are processed independently, then all remaining nuclei are resolved in a single pass, 
+	 * using the local nuclei they might overlap as fixed context.
+	 * <p>
+	 * Cells are processed with a parallel stream, so this uses the {@link ForkJoinPool} of the caller 
+	 * (if there is one).
+	 * @param potentialNuclei
+	 * @param overlapMethod the method used to resolve overlaps
+	 * @param overlapThreshold the overlap threshold, used with {@link OverlapMethod#RAYS}
+	 * @return the nuclei to retain, in descending order of probability
+	 */
+	static List<PotentialNucleus> filterNucleiPartitioned(List<PotentialNucleus> potentialNuclei, 
+			OverlapMethod overlapMethod, double overlapThreshold) {
+		return filterNucleiPartitioned(potentialNuclei, overlapMethod, overlapThreshold, false);
+	}
+	
+	
+	private static List<PotentialNucleus> filterNucleiPartitioned(List<PotentialNucleus> potentialNuclei, 
+			OverlapMethod overlapMethod, double overlapThreshold, boolean ignoreNegligibleOverlaps) {
+		
+		// Sort in descending order of probability, so that ties are handled as they would be sequentially
+		var sorted = sortByProbability(potentialNuclei);
+		int n = sorted.size();
+		
+		// Expand envelopes by a pixel, since a very small nucleus may be represented by the pixel containing its center
+		var envelopes = new Envelope[n];
+		var bounds = new Envelope();
+		double sumSize = 0;
+		for (int i = 0; i < n; i++) {
+			var nucleus = sorted.get(i);
+			var env = new Envelope(nucleus.getEnvelope());
+			env.expandBy(nucleus.scale);
+			envelopes[i] = env;
+			bounds.expandToInclude(env);
+			sumSize += Math.max(env.getWidth(), env.getHeight());
+		}
+		
+		// Choose cells to contain many nuclei, and be much larger than a nucleus (so few lie across a boundary)
+		double cellSize = Math.max(Math.sqrt(bounds.getArea() * NUCLEI_PER_PARTITION / n), sumSize / n * 16);
+		if (!(cellSize > 0))
+			cellSize = 1.0;
+		int nx = Math.max(1, (int)Math.ceil(bounds.getWidth() / cellSize));
+		int ny = Math.max(1, (int)Math.ceil(bounds.getHeight() / cellSize));
+		
+		// Assign each nucleus to every cell it touches, in order of probability
+		var cells = new ArrayList<List<Integer>>(nx * ny);
+		for (int c = 0; c < nx * ny; c++)
+			cells.add(new ArrayList<>());
+		var interior = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			var env = envelopes[i];
+			int x1 = Math.min(nx - 1, (int)((env.getMinX() - bounds.getMinX()) / cellSize));
+			int x2 = Math.min(nx - 1, (int)((env.getMaxX() - bounds.getMinX()) / cellSize));
+			int y1 = Math.min(ny - 1, (int)((env.getMinY() - bounds.getMinY()) / cellSize));
+			int y2 = Math.min(ny - 1, (int)((env.getMaxY() - bounds.getMinY()) / cellSize));
+			interior[i] = x1 == x2 && y1 == y2;
+			for (int y = y1; y <= y2; y++) {
+				for (int x = x1; x <= x2; x++)
+					cells.get(y * nx + x).add(i);
+			}
+		}
+		
+		// Resolve the local nuclei within each cell
+		// Flags are only written for nuclei inside the cell, so cells don't interfere with one another
+		var local = new boolean[n];
+		var context = new boolean[n];
+		var kept = new boolean[n];
+		double meanSize = sumSize / n;
+		cells.parallelStream()
+				.forEach(indices -> filterNucleiInCell(sorted, envelopes, meanSize, indices, interior, local, context, kept, 
+						overlapMethod, overlapThreshold, ignoreNegligibleOverlaps));
+		
+		// Resolve everything else, with local nuclei as context where needed
+		var remaining = new ArrayList<PotentialNucleus>();
+		var remainingIndices = new int[n];
+		var fixed = new HashSet<PotentialNucleus>();
+		for (int i = 0; i < n; i++) {
+			if (!local[i] || context[i]) {
+				remainingIndices[remaining.size()] = i;
+				remaining.add(sorted.get(i));
+				if (local[i])
+					fixed.add(sorted.get(i));
+			}
+		}
+		logger.debug("Resolving overlaps in {} partitions, with {}/{} nuclei resolved afterwards", 
+				nx * ny, remaining.size(), n);
+		var retained = new HashSet<>(filterNuclei(remaining, fixed, overlapMethod, overlapThreshold, ignoreNegligibleOverlaps));
+		for (int k = 0; k < remaining.size(); k++) {
+			if (retained.contains(remaining.get(k)))
+				kept[remainingIndices[k]] = true;
+		}
+		
+		var nuclei = new ArrayList<PotentialNucleus>();
+		for (int i = 0; i < n; i++) {
+			if (kept[i])
+				nuclei.add(sorted.get(i));
+		}
+		return nuclei;
+	}
+	
+	
+	/**
+	 * Resolve overlaps for the local nuclei in a single cell of the grid used by 
+	 * {@link #filterNucleiPartitioned(List, OverlapMethod, double)}.
+	 * @param sorted all nuclei, in descending order of probability
+	 * @param envelopes envelopes used to test for potential overlaps
+	 * @param meanSize mean size of the envelopes
+	 * @param indices indices of all nuclei touching the cell, in ascending order
+	 * @param interior flags indicating nuclei that lie inside a single cell
+	 * @param local flags to set for local nuclei inside this cell
+	 * @param context flags to set for retained local nuclei that might overlap a lower-probability non-local nucleus
+	 * @param kept flags to set for retained local nuclei
+	 * @param overlapMethod the method used to resolve overlaps
+	 * @param overlapThreshold the overlap threshold, used with {@link OverlapMethod#RAYS}
+	 * @param ignoreNegligibleOverlaps if true, ignore very small overlaps with {@link OverlapMethod#GEOMETRY}
+	 */
+	private static void filterNucleiInCell(List<PotentialNucleus> sorted, Envelope[] envelopes, double meanSize,
+			List<Integer> indices, boolean[] interior, boolean[] local, boolean[] context, boolean[] kept, 
+			OverlapMethod overlapMethod, double overlapThreshold, boolean ignoreNegligibleOverlaps) {
+		if (indices.isEmpty())
+			return;
+		
+		// Grid ids are the positions in the list of indices
+		var grid = new EnvelopeGrid(meanSize);
+		for (int i : indices)
+			grid.insert(envelopes[i]);
+		var results = new EnvelopeGrid.Results();
+		
+		// Find local nuclei, in descending order of probability
+		var localNuclei = new ArrayList<PotentialNucleus>();
+		for (int i : indices) {
+			if (!interior[i])
+				continue;
+			boolean isLocal = true;
+			grid.query(envelopes[i], results);
+			for (int k = 0; k < results.size(); k++) {
+				int j = indices.get(results.get(k));
+				if (j < i && !local[j]) {
+					isLocal = false;
+					break;
+				}
+			}
+			if (isLocal) {
+				local[i] = true;
+				localNuclei.add(sorted.get(i));
+			}
+		}
+		
+		var retained = filterNuclei(localNuclei, Collections.emptySet(), overlapMethod, overlapThreshold, ignoreNegligibleOverlaps);
+		
+		// Flag the retained nuclei, and those that might affect nuclei resolved later
+		var retainedSet = new HashSet<>(retained);
+		for (int i : indices) {
+			if (!local[i] || !retainedSet.contains(sorted.get(i)))
+				continue;
+			kept[i] = true;
+			grid.query(envelopes[i], results);
+			for (int k = 0; k < results.size(); k++) {
+				int j = indices.get(results.get(k));
+				if (j > i && !local[j]) {
+					context[i] = true;
+					break;
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Resolve overlaps by intersection over union, computed from the rays of each nucleus.
+	 * Geometries are not required.
+	 * @param potentialNuclei
+	 * @param retained nuclei that are already known to be retained
+	 * @param iouThreshold
+	 * @return the nuclei to retain, in descending order of probability
+	 */
+	private static List<PotentialNucleus> filterNucleiByRays(List<PotentialNucleus> potentialNuclei, Set<PotentialNucleus> retained, double iouThreshold) {
 		
 		// Sort in descending order of probability
-		Collections.sort(potentialNuclei, Comparator.comparingDouble((PotentialNucleus n) -> n.getProbability()).reversed());
+		var sorted = sortByProbability(potentialNuclei);
+		
+		int n = sorted.size();
+		var grid = new EnvelopeGrid(meanNucleusSize(sorted));
+		for (int i = 0; i < n; i++)
+			grid.insert(sorted.get(i).envelope);
+		var overlaps = new EnvelopeGrid.Results();
+		
+		var nuclei = new ArrayList<PotentialNucleus>();
+		var suppressed = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			if (suppressed[i])
+				continue;
+			var nucleus = sorted.get(i);
+			nuclei.add(nucleus);
+			double area = nucleus.getRayArea();
+			
+			grid.query(nucleus.envelope, overlaps);
+			for (int k = 0; k < overlaps.size(); k++) {
+				int j = overlaps.get(k);
+				// Only lower-probability nuclei that haven't been suppressed
+				if (j <= i || suppressed[j])
+					continue;
+				var nucleus2 = sorted.get(j);
+				if (retained.contains(nucleus2) || !nucleus.envelope.intersects(nucleus2.envelope))
+					continue;
+				double iou = nucleus.shape.iou(
+						nucleus.x, nucleus.y, nucleus.rays, area,
+						nucleus2.x, nucleus2.y, nucleus2.rays, nucleus2.getRayArea(),
+						nucleus.scale);
+				if (iou > iouThreshold)
+					suppressed[j] = true;
+			}
+		}
+		return nuclei;
+	}
+	
+	
+	/**
+	 * Resolve overlaps by painting nuclei into a binary image, in descending order of probability.
+	 * A nucleus is retained only if more than half its pixels have not already been painted.
+	 * Geometries are not required.
+	 * @param potentialNuclei
+	 * @param retained nuclei that are already known to be retained
+	 * @return the nuclei to retain, in descending order of probability
+	 */
+	private static List<PotentialNucleus> filterNucleiByRaster(List<PotentialNucleus> potentialNuclei, Set<PotentialNucleus> retained) {
+		
+		// Sort in descending order of probability
+		var sorted = sortByProbability(potentialNuclei);
+		
+		var nuclei = new ArrayList<PotentialNucleus>();
+		if (sorted.isEmpty())
+			return nuclei;
+		
+		// Paint at the resolution of the prediction
+		var painted = new SparseBitmap();
+		var precisionModel = GeometryTools.getDefaultFactory().getPrecisionModel();
+		int nRays = sorted.get(0).rays.length;
+		double[] xs = new double[nRays + 1];
+		double[] ys = new double[nRays + 1];
+		double[] crossings = new double[nRays + 1];
+		int[] counts = new int[1];
+		
+		for (var nucleus : sorted) {
+			double pixelSize = nucleus.scale;
+			int n = nucleus.shape.computeVertices(nucleus.x, nucleus.y, nucleus.rays, pixelSize, precisionModel, xs, ys);
+			boolean isRetained = retained.contains(nucleus);
+			
+			// Count pixels that have already been painted
+			counts[0] = 0;
+			int nPixels = StarConvexPolygons.rasterize(xs, ys, n, pixelSize, crossings, (x, y) -> {
+				if (painted.get(x, y))
+					counts[0]++;
+			});
+			
+			// Very small nuclei might not contain any pixel centers, so use the pixel containing the center instead
+			if (nPixels == 0) {
+				int x = (int)Math.floor(nucleus.x / pixelSize);
+				int y = (int)Math.floor(nucleus.y / pixelSize);
+				if (isRetained || !painted.get(x, y)) {
+					painted.set(x, y);
+					nuclei.add(nucleus);
+				}
+				continue;
+			}
+			
+			if (isRetained || (nPixels - counts[0]) * 2 > nPixels) {
+				StarConvexPolygons.rasterize(xs, ys, n, pixelSize, crossings, painted::set);
+				nuclei.add(nucleus);
+			}
+		}
+		return nuclei;
+	}
+	
+	
+	/**
+	 * Resolve overlaps by subtracting the geometry of each retained nucleus from overlapping nuclei.
+	 * @param potentialNuclei
+	 * @param retained nuclei that are already known to be retained
+	 * @param ignoreNegligibleOverlaps if true, ignore overlaps smaller than {@link #NEGLIGIBLE_OVERLAP} of the 
+	 *                                 area of a nucleus that had already been trimmed before this was called; 
+	 *                                 these arise from rounding coordinates, and would otherwise fragment it
+	 * @return the nuclei to retain, in descending order of probability
+	 */
+	private static List<PotentialNucleus> filterNucleiByGeometry(List<PotentialNucleus> potentialNuclei, Set<PotentialNucleus> retained, 
+			boolean ignoreNegligibleOverlaps) {
 		
-		// Create array of nuclei to keep & to skip
-	    var nuclei = new LinkedHashSet<PotentialNucleus>();
-	    var skippedNucleus = new HashSet<PotentialNucleus>();
+		// Sort in descending order of probability
+		// From here on, nuclei are identified by their index in this order
+		potentialNuclei = sortByProbability(potentialNuclei);
+		int n = potentialNuclei.size();
+		
+		// Track nuclei to keep & to skip
+		var kept = new BitSet(n);
+		var skipped = new BitSet(n);
+		var fixed = new BitSet(n);
+		if (!retained.isEmpty()) {
+			for (int i = 0; i < n; i++) {
+				if (retained.contains(potentialNuclei.get(i)))
+					fixed.set(i);
+			}
+		}
+		// Nuclei that were already trimmed before we started
+		var trimmed = new BitSet(n);
+		if (ignoreNegligibleOverlaps) {
+			for (int i = 0; i < n; i++) {
+				var nucleus = potentialNuclei.get(i);
+				if (nucleus.geometry != null && nucleus.geometry.getArea() < nucleus.fullArea)
+					trimmed.set(i);
+			}
+		}
 	    int skipErrorCount = 0;
 	    
 	    // Create a spatial cache to find overlaps more quickly
-	    // (Because of later tests, we don't need to update envelopes even though geometries may be modified)
-	    Map<Geometry, Envelope> envelopes = new HashMap<>();
-	    var tree = new STRtree();
-	    for (var nuc : potentialNuclei) {
-	    	var env = nuc.geometry.getEnvelopeInternal();
-	    	envelopes.put(nuc.geometry, env);
-	    	tree.insert(env, nuc);
+	    // (Because of later tests, we don't need to update the grid even though geometries may be modified - 
+	    // but we do update the envelopes used for the tests)
+	    var minX = new double[n];
+	    var minY = new double[n];
+	    var maxX = new double[n];
+	    var maxY = new double[n];
+	    var grid = new EnvelopeGrid(meanNucleusSize(potentialNuclei));
+	    for (int i = 0; i < n; i++) {
+	    	var env = potentialNuclei.get(i).getGeometry().getEnvelopeInternal();
+	    	minX[i] = env.getMinX();
+	    	minY[i] = env.getMinY();
+	    	maxX[i] = env.getMaxX();
+	    	maxY[i] = env.getMaxY();
+	    	grid.insert(env);
 	    }
 	    
 	    var preparingFactory = new PreparedGeometryFactory();
+	    var results = new EnvelopeGrid.Results();
+	    int[] overlaps = new int[16];
 	    
-	    for (var nucleus : potentialNuclei) {
-	        if (skippedNucleus.contains(nucleus))
+	    for (int i = 0; i < n; i++) {
+	        if (skipped.get(i))
 	            continue;
 	        
-	        nuclei.add(nucleus);
-        	var envelope = envelopes.computeIfAbsent(nucleus.geometry, g -> g.getEnvelopeInternal());
-        	
-        	@SuppressWarnings("unchecked")
-			var overlaps = (List<PotentialNucleus>)tree.query(envelope);
+	        kept.set(i);
+	        var nucleus = potentialNuclei.get(i);
         	
         	// Remove the overlaps that we can be sure don't apply using quick tests, to avoid expensive ones
-        	var iter = overlaps.iterator();
-        	while (iter.hasNext()) {
-        		var nucleus2 = iter.next();
-        		if (nucleus2 == nucleus || skippedNucleus.contains(nucleus2) || nuclei.contains(nucleus2))
-        			iter.remove();
-        		else {
-        			// Envelope text needed because nuclei can have been modified
-	        		var env = envelopes.computeIfAbsent(nucleus2.geometry, g -> g.getEnvelopeInternal());
-	            	if (!envelope.intersects(env))
-	            		iter.remove();
-        		}
+	        // Nuclei earlier in the order have already been kept or skipped, so only later ones can change
+	        int nOverlaps = 0;
+	        grid.query(minX[i], minY[i], maxX[i], maxY[i], results);
+        	for (int r = 0; r < results.size(); r++) {
+        		int j = results.get(r);
+        		if (j <= i || skipped.get(j) || fixed.get(j))
+        			continue;
+        		// Envelope test needed because nuclei can have been modified
+        		if (minX[j] > maxX[i] || maxX[j] < minX[i] || minY[j] > maxY[i] || maxY[j] < minY[i])
+        			continue;
+        		if (nOverlaps == overlaps.length)
+        			overlaps = Arrays.copyOf(overlaps, nOverlaps * 2);
+        		overlaps[nOverlaps++] = j;
         	}
         	
         	// If we need to compare a lot of intersections, preparing the geometry can speed things up
         	PreparedGeometry prepared = null;
-        	if (overlaps.size() > 5) {
+        	if (nOverlaps > 5) {
         		prepared = preparingFactory.create(nucleus.geometry);
         	}
-        	for (var nucleus2 : overlaps) {
+        	for (int k = 0; k < nOverlaps; k++) {
+        		int j = overlaps[k];
+        		var nucleus2 = potentialNuclei.get(j);
         		// If we have an overlap, retain the higher-probability nucleus only (i.e. the one we met first)
         		// Try to refine other nuclei
 	            try {
@@ -1653,20 +3496,30 @@ public class StarDist2D implements AutoCloseable {
 	                	// Retain the nucleus only if it is not fragmented, or less than half its original area
 	                    var difference = nucleus2.geometry.difference(nucleus.geometry);
 	                    
+	                    // Ignore negligible overlaps for nuclei trimmed previously (i.e. when resolving tile seams)
+	                    if (trimmed.get(j) && 
+	                    		nucleus2.geometry.getArea() - difference.getArea() < nucleus2.fullArea * NEGLIGIBLE_OVERLAP)
+	                    	continue;
+	                    
 	                    // Discard linestrings
 	                    if (difference instanceof GeometryCollection)
 	                    	difference = GeometryTools.ensurePolygonal(difference);
 	                    
-	                    if (difference instanceof Polygon && difference.getArea() > nucleus2.fullArea / 2.0)
+	                    if (difference instanceof Polygon && difference.getArea() > nucleus2.fullArea / 2.0) {
 	                        nucleus2.geometry = difference;
-	                    else {
-	                    	skippedNucleus.add(nucleus2);
+	                        var env = difference.getEnvelopeInternal();
+	                        minX[j] = env.getMinX();
+	                        minY[j] = env.getMinY();
+	                        maxX[j] = env.getMaxX();
+	                        maxY[j] = env.getMaxY();
+	                    } else {
+	                    	skipped.set(j);
 	                    }
 	                }
 	            } catch (Exception e) {
 					logger.debug("Exception resolving nuclei: " + e.getMessage());
 					logger.trace(e.getMessage(), e);
-                	skippedNucleus.add(nucleus2);
+                	skipped.set(j);
 	            	skipErrorCount++;
 	            }
 
@@ -1675,38 +3528,92 @@ public class StarDist2D implements AutoCloseable {
 	    if (skipErrorCount > 0) {
 			// Reduce warning to debug - this happens often for 1 or 2 nuclei but isn't necessarily
 			// a serious problem that the user should be aware of
-	    	int skipCount = skippedNucleus.size();
+	    	int skipCount = skipped.cardinality();
 	    	String s = skipErrorCount == 1 ? "1 nucleus" : skipErrorCount + " nuclei";
 	    	logger.debug("Skipped {} due to error in resolving overlaps ({}% of all skipped)",
 	    			s, GeneralTools.formatNumber(skipErrorCount*100.0/skipCount, 1));
 	    }
-	    return new ArrayList<>(nuclei);
-	}
-	
-	
-	private static double[][] sinCosAngles(int n) {
-	    double[][] angles = new double[2][n];
-	    for (int i = 0; i < n; i++) {
-	        double theta = 2 * Math.PI / n * i;
-	        angles[0][i] = Math.sin(theta);
-	        angles[1][i] = Math.cos(theta);
-	    }
-	    return angles;
+	    var nuclei = new ArrayList<PotentialNucleus>(kept.cardinality());
+	    for (int i = kept.nextSetBit(0); i >= 0; i = kept.nextSetBit(i + 1))
+	    	nuclei.add(potentialNuclei.get(i));
+	    return nuclei;
 	}
 	
 	
-	private static class PotentialNucleus {
+	/**
+	 * A nucleus that may be retained after resolving overlaps.
+	 */
+	static class PotentialNucleus {
 		
 		private Geometry geometry;
 	    private double fullArea;
 	    private double probability;
 	    private int classification;
+	    
+	    // Star-convex representation, from which the geometry can be created if needed
+	    private final StarConvexPolygons shape;
+	    private final double x;
+	    private final double y;
+	    private final float[] rays;
+	    private final double scale;
+	    private final Envelope envelope;
+	    private double rayArea = Double.NaN;
 
-	    PotentialNucleus(Geometry geom, double prob, int classification) {
-	        this.geometry = geom;
+	    /**
+	     * Create a potential nucleus.
+	     * @param shape helper for the star-convex polygon
+	     * @param x x-coordinate of the center
+	     * @param y y-coordinate of the center
+	     * @param rays ray distances
+	     * @param scale scale factor to convert ray distances to image pixels
+	     * @param envelope envelope of the polygon
+	     * @param prob the probability
+	     * @param classification the classification, or -1
+	     */
+	    PotentialNucleus(StarConvexPolygons shape, double x, double y, float[] rays, double scale, Envelope envelope, double prob, int classification) {
+	    	this.shape = shape;
+	    	this.x = x;
+	    	this.y = y;
+	    	this.rays = rays;
+	    	this.scale = scale;
+	    	this.envelope = envelope;
 	        this.probability = prob;
 	        this.classification = classification;
-	        this.fullArea = geom.getArea();
+	    }
+	    
+	    /**
+	     * Get the geometry, creating it from the rays if necessary.
+	     * The geometry is not simplified, since this is only needed for nuclei that are retained.
+	     * @return
+	     */
+	    Geometry getGeometry() {
+	    	if (geometry == null) {
+	    		var factory = GeometryTools.getDefaultFactory();
+	    		double[] xs = new double[rays.length + 1];
+	    		double[] ys = new double[rays.length + 1];
+	    		int n = shape.computeVertices(x, y, rays, scale, factory.getPrecisionModel(), xs, ys);
+	    		geometry = StarConvexPolygons.createPolygon(factory, xs, ys, n);
+	    		fullArea = geometry.getArea();
+	    	}
+	    	return geometry;
+	    }
+	    
+	    /**
+	     * Get the envelope of the geometry, if available, or else of the original polygon.
+	     * @return
+	     */
+	    Envelope getEnvelope() {
+	    	return geometry == null ? envelope : geometry.getEnvelopeInternal();
+	    }
+	    
+	    /**
+	     * Get the area of the original polygon, calculated from the rays.
+	     * @return
+	     */
+	    double getRayArea() {
+	    	if (Double.isNaN(rayArea))
+	    		rayArea = shape.area(rays, scale);
+	    	return rayArea;
 	    }
 
 	    double getProbability() {
@@ -1724,15 +3631,47 @@ public class StarDist2D implements AutoCloseable {
 	 * Close and cleanup resources.
 	 * <p>
 	 * In practice, this means close any {@link DnnModel} stored if it is an instance of
-	 * {@link Closeable} or {@link AutoCloseable}.
+	 * {@link Closeable} or {@link AutoCloseable}, including all models in a pool 
+	 * (see {@link Builder#modelPoolSize(int)}).
 	 * This can be important to avoid memory leaks, particularly if using a GPU.
+	 * <p>
+	 * If the model was obtained from the model cache, it is only closed when it is no longer 
+	 * used by any other {@link StarDist2D}, and it isn't retained for reuse 
+	 * (see {@link #setMaxCachedModels(int)}).
+	 * @see #clearModelCache()
 	 */
 	@Override
 	public void close() throws Exception {
-		if (dnn instanceof Closeable) {
-			((Closeable) dnn).close();
-		} else if (dnn instanceof AutoCloseable)
-			((AutoCloseable) dnn).close();
+		if (closed.getAndSet(true))
+			return;
+		if (!DnnModelCache.getInstance().release(modelPool))
+			modelPool.close();
+	}
+	
+	
+	/**
+	 * Set the maximum number of cached models to retain after the last {@link StarDist2D} 
+	 * using them has been closed. 
+	 * These can then be reused without needing to load the model again.
+	 * The default is 0, so that models are closed as soon as they are no longer in use; 
+	 * increase this to keep recently used models loaded, at the cost of memory (particularly if using a GPU).
+	 * @param maxModels
+	 * @see Builder#cacheModel(boolean)
+	 * @since v0.6.0
+	 */
+	public static void setMaxCachedModels(int maxModels) {
+		DnnModelCache.getInstance().setMaxIdleModels(maxModels);
+	}
+	
+	
+	/**
+	 * Close all cached models that aren't currently in use by a {@link StarDist2D}.
+	 * This can help reclaim memory, particularly if using a GPU.
+	 * @see Builder#cacheModel(boolean)
+	 * @since v0.6.0
+	 */
+	public static void clearModelCache() {
+		DnnModelCache.getInstance().clear();
 	}
 	
 	
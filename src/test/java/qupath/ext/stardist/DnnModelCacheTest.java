@@ -0,0 +1,152 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.Test;
+
+import qupath.opencv.dnn.DnnModel;
+
+public class DnnModelCacheTest {
+
+	/**
+	 * Model that does nothing, except record whether it has been closed.
+	 */
+	private static class CloseableModel implements DnnModel, AutoCloseable {
+
+		private final AtomicInteger closeCount = new AtomicInteger();
+
+		@Override
+		public Map<String, Mat> predict(Map<String, Mat> blobs) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<Map<String, Mat>> batchPredict(List<? extends Map<String, Mat>> blobs) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			closeCount.incrementAndGet();
+		}
+
+		boolean isClosed() {
+			return closeCount.get() > 0;
+		}
+
+	}
+
+	private static File createModelFile() throws IOException {
+		var file = Files.createTempFile("model", ".pb").toFile();
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void test_releasedModelIsClosed() throws Exception {
+		var cache = new DnnModelCache();
+		assertEquals(0, cache.getMaxIdleModels());
+
+		var file = createModelFile();
+		var model = new CloseableModel();
+		var loads = new AtomicInteger();
+		DnnModelCache.PoolLoader loader = () -> {
+			loads.incrementAndGet();
+			return DnnModelPool.shared(model);
+		};
+
+		var pool1 = cache.acquire(file, "NCHW", 0, loader);
+		var pool2 = cache.acquire(file, "NCHW", 0, loader);
+		assertSame(pool1, pool2);
+		assertEquals(1, loads.get());
+
+		// Still in use by one instance
+		assertTrue(cache.release(pool1));
+		assertFalse(model.isClosed());
+
+		// No longer in use, so should be closed immediately
+		assertTrue(cache.release(pool2));
+		assertTrue(model.isClosed());
+		assertEquals(1, model.closeCount.get());
+
+		// Should need to load again
+		var pool3 = cache.acquire(file, "NCHW", 0, () -> DnnModelPool.shared(new CloseableModel()));
+		assertNotSame(pool1, pool3);
+		cache.release(pool3);
+	}
+
+	@Test
+	public void test_idleModelsAreOptIn() throws Exception {
+		var cache = new DnnModelCache();
+		cache.setMaxIdleModels(1);
+
+		var file1 = createModelFile();
+		var file2 = createModelFile();
+		var model1 = new CloseableModel();
+		var model2 = new CloseableModel();
+
+		var pool1 = cache.acquire(file1, "NCHW", 0, () -> DnnModelPool.shared(model1));
+		cache.release(pool1);
+		assertFalse(model1.isClosed());
+
+		// Reuse the idle model
+		var pool1Again = cache.acquire(file1, "NCHW", 0, () -> DnnModelPool.shared(new CloseableModel()));
+		assertSame(pool1, pool1Again);
+		cache.release(pool1Again);
+
+		// Releasing a second model should evict the least recently used
+		var pool2 = cache.acquire(file2, "NCHW", 0, () -> DnnModelPool.shared(model2));
+		cache.release(pool2);
+		assertTrue(model1.isClosed());
+		assertFalse(model2.isClosed());
+
+		// Reducing the limit should close the remaining idle model
+		cache.setMaxIdleModels(0);
+		assertTrue(model2.isClosed());
+	}
+
+	@Test
+	public void test_clearClosesIdleModels() throws Exception {
+		var cache = new DnnModelCache();
+		cache.setMaxIdleModels(2);
+
+		var file = createModelFile();
+		var model = new CloseableModel();
+		var pool = cache.acquire(file, "NCHW", 0, () -> DnnModelPool.shared(model));
+		cache.release(pool);
+		assertFalse(model.isClosed());
+
+		cache.clear();
+		assertTrue(model.isClosed());
+		assertFalse(cache.release(pool));
+	}
+
+}
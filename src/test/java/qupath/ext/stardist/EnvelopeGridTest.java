@@ -0,0 +1,140 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+
+public class EnvelopeGridTest {
+
+	private static Envelope randomEnvelope(Random rng, double min, double max, double maxSize) {
+		double x = min + rng.nextDouble() * (max - min);
+		double y = min + rng.nextDouble() * (max - min);
+		return new Envelope(x, x + rng.nextDouble() * maxSize, y, y + rng.nextDouble() * maxSize);
+	}
+
+	/**
+	 * Query the grid, checking that no id is reported more than once.
+	 */
+	private static TreeSet<Integer> query(EnvelopeGrid grid, Envelope envelope, EnvelopeGrid.Results results) {
+		grid.query(envelope, results);
+		var ids = new TreeSet<Integer>();
+		for (int i = 0; i < results.size(); i++)
+			assertTrue(ids.add(results.get(i)), "Id " + results.get(i) + " reported more than once");
+		return ids;
+	}
+
+	private static TreeSet<Integer> bruteForce(List<Envelope> envelopes, Envelope envelope) {
+		var ids = new TreeSet<Integer>();
+		for (int i = 0; i < envelopes.size(); i++) {
+			if (envelopes.get(i).intersects(envelope))
+				ids.add(i);
+		}
+		return ids;
+	}
+
+	private static void checkRandom(long seed, double cellSize, double min, double max, double maxSize, int n) {
+		var rng = new Random(seed);
+		var grid = new EnvelopeGrid(cellSize);
+		var envelopes = new ArrayList<Envelope>();
+		var results = new EnvelopeGrid.Results();
+		for (int i = 0; i < n; i++) {
+			var env = randomEnvelope(rng, min, max, maxSize);
+			assertEquals(i, grid.insert(env));
+			envelopes.add(env);
+			// Query while inserting, so that we check results before and after the table is rehashed
+			if (i % 37 == 0) {
+				var q = randomEnvelope(rng, min, max, maxSize * 2);
+				assertEquals(bruteForce(envelopes, q), query(grid, q, results));
+			}
+		}
+		assertEquals(n, grid.size());
+		for (int i = 0; i < 500; i++) {
+			var q = randomEnvelope(rng, min - maxSize, max + maxSize, maxSize * 3);
+			assertEquals(bruteForce(envelopes, q), query(grid, q, results));
+		}
+		// Every item should find itself
+		for (int i = 0; i < n; i++)
+			assertTrue(query(grid, envelopes.get(i), results).contains(i));
+	}
+
+	@Test
+	public void test_similarSizes() {
+		checkRandom(1, 10, 0, 1000, 10, 5000);
+	}
+
+	@Test
+	public void test_negativeCoordinates() {
+		// Envelopes on both sides of zero, including cells with negative indices
+		checkRandom(2, 10, -500, 500, 10, 5000);
+		checkRandom(3, 7.5, -10_000, -9_000, 12, 2000);
+	}
+
+	@Test
+	public void test_spanningManyCells() {
+		// Envelopes much larger than the cells, so each is inserted into many buckets
+		checkRandom(4, 2, -100, 100, 40, 500);
+	}
+
+	@Test
+	public void test_rehash() {
+		// Many occupied cells, so that the hash table needs to grow many times
+		checkRandom(5, 1, -2000, 2000, 0.5, 20_000);
+	}
+
+	@Test
+	public void test_boundaries() {
+		var grid = new EnvelopeGrid(10);
+		var results = new EnvelopeGrid.Results();
+		// Envelopes lying exactly on cell boundaries, and points
+		var envelopes = List.of(
+				new Envelope(-10, 0, -10, 0),
+				new Envelope(0, 10, 0, 10),
+				new Envelope(10, 10, 10, 10),
+				new Envelope(-0.5, 0.5, -0.5, 0.5),
+				new Envelope(-30, 30, 5, 5));
+		for (var env : envelopes)
+			grid.insert(env);
+		for (var q : List.of(
+				new Envelope(0, 0, 0, 0),
+				new Envelope(10, 20, 10, 20),
+				new Envelope(-10, -10, -10, -10),
+				new Envelope(-25, -20, 0, 10),
+				new Envelope(-100, 100, -100, 100),
+				new Envelope(10.01, 20, 10.01, 20))) {
+			assertEquals(bruteForce(envelopes, q), query(grid, q, results));
+		}
+	}
+
+	@Test
+	public void test_invalidCellSize() {
+		assertThrows(IllegalArgumentException.class, () -> new EnvelopeGrid(0));
+		assertThrows(IllegalArgumentException.class, () -> new EnvelopeGrid(-1));
+		assertThrows(IllegalArgumentException.class, () -> new EnvelopeGrid(Double.NaN));
+		assertThrows(IllegalArgumentException.class, () -> new EnvelopeGrid(Double.POSITIVE_INFINITY));
+	}
+
+}
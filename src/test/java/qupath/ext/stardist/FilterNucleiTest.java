@@ -0,0 +1,316 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import qupath.ext.stardist.StarDist2D.OverlapMethod;
+import qupath.ext.stardist.StarDist2D.PotentialNucleus;
+import qupath.lib.roi.GeometryTools;
+
+public class FilterNucleiTest {
+
+	private static final int N_RAYS = 16;
+
+	/**
+	 * Create random, densely-packed star-convex nuclei.
+	 * The same seed always gives the same nuclei, so that methods that modify the nuclei can be compared.
+	 * Probabilities are rounded so that there are many ties.
+	 */
+	static List<PotentialNucleus> createNuclei(long seed, int n, double width, double height) {
+		var rng = new Random(seed);
+		var shape = StarConvexPolygons.getInstance(N_RAYS);
+		var precisionModel = GeometryTools.getDefaultFactory().getPrecisionModel();
+		var xs = new double[N_RAYS + 1];
+		var ys = new double[N_RAYS + 1];
+		var nuclei = new ArrayList<PotentialNucleus>();
+		for (int i = 0; i < n; i++) {
+			double x = rng.nextDouble() * width;
+			double y = rng.nextDouble() * height;
+			double radius = 3 + rng.nextDouble() * 6;
+			var rays = new float[N_RAYS];
+			for (int a = 0; a < N_RAYS; a++)
+				rays[a] = (float)(radius * (0.6 + rng.nextDouble() * 0.8));
+			int nVertices = shape.computeVertices(x, y, rays, 1.0, precisionModel, xs, ys);
+			var envelope = new Envelope();
+			for (int v = 0; v < nVertices; v++)
+				envelope.expandToInclude(xs[v], ys[v]);
+			double prob = Math.round(rng.nextDouble() * 50) / 50.0;
+			nuclei.add(new PotentialNucleus(shape, x, y, rays, 1.0, envelope, prob, -1));
+		}
+		return nuclei;
+	}
+
+	/**
+	 * Get the indices of the retained nuclei within the original list, in the order they were retained.
+	 */
+	static List<Integer> indicesOf(List<PotentialNucleus> all, List<PotentialNucleus> retained) {
+		var map = new IdentityHashMap<PotentialNucleus, Integer>();
+		for (int i = 0; i < all.size(); i++)
+			map.put(all.get(i), i);
+		return retained.stream().map(map::get).toList();
+	}
+
+	private static void checkPartitioned(OverlapMethod method, int n, double size) {
+		long seed = 42;
+		var nuclei = createNuclei(seed, n, size, size);
+		var expected = StarDist2D.filterNuclei(new ArrayList<>(nuclei), Collections.emptySet(), method, 0.4);
+
+		var nuclei2 = createNuclei(seed, n, size, size);
+		var actual = StarDist2D.filterNucleiPartitioned(new ArrayList<>(nuclei2), method, 0.4);
+
+		// Check we have a reasonable test - many overlaps, but many nuclei retained
+		assertTrue(expected.size() > n / 10);
+		assertTrue(expected.size() < n * 9 / 10);
+
+		var expectedIndices = indicesOf(nuclei, expected);
+		var actualIndices = indicesOf(nuclei2, actual);
+		assertEquals(new TreeSet<>(expectedIndices), new TreeSet<>(actualIndices));
+		// Order should be the same too (descending probability, with ties in input order)
+		assertEquals(expectedIndices, actualIndices);
+
+		// Geometries may have been trimmed, but vertices could be ordered differently
+		if (method == OverlapMethod.GEOMETRY) {
+			for (int i = 0; i < expected.size(); i++)
+				assertTrue(expected.get(i).getGeometry().equalsTopo(actual.get(i).getGeometry()));
+		}
+	}
+
+	@Test
+	public void test_sortByProbability() {
+		// Probabilities have many ties, so check these keep the input order
+		var nuclei = createNuclei(44, 5000, 100, 100);
+		var expected = new ArrayList<>(nuclei);
+		expected.sort(Comparator.comparingDouble((PotentialNucleus n) -> n.getProbability()).reversed());
+		assertEquals(indicesOf(nuclei, expected), indicesOf(nuclei, StarDist2D.sortByProbability(nuclei)));
+		assertEquals(List.of(), StarDist2D.sortByProbability(List.of()));
+	}
+
+	/**
+	 * Split nuclei into square tiles according to the centers of their envelopes, and resolve overlaps within each tile.
+	 * @return a list containing the interior nuclei for each tile, followed by the seam nuclei for each tile
+	 */
+	private static List<List<List<PotentialNucleus>>> createTiles(List<PotentialNucleus> nuclei, double tileSize, int nTilesX, int nTilesY, 
+			OverlapMethod method) {
+		// Assign nuclei to tiles before resolving any overlaps, since this can change the envelopes
+		var tiles = new ArrayList<List<PotentialNucleus>>();
+		for (int t = 0; t < nTilesX * nTilesY; t++)
+			tiles.add(new ArrayList<>());
+		for (var nucleus : nuclei) {
+			var c = nucleus.getEnvelope().centre();
+			int tx = Math.min(nTilesX - 1, (int)(c.x / tileSize));
+			int ty = Math.min(nTilesY - 1, (int)(c.y / tileSize));
+			tiles.get(ty * nTilesX + tx).add(nucleus);
+		}
+
+		var interior = new ArrayList<List<PotentialNucleus>>();
+		var seam = new ArrayList<List<PotentialNucleus>>();
+		for (int ty = 0; ty < nTilesY; ty++) {
+			for (int tx = 0; tx < nTilesX; tx++) {
+				var bounds = new Envelope(tx * tileSize, (tx + 1) * tileSize, ty * tileSize, (ty + 1) * tileSize);
+				var tileNuclei = tiles.get(ty * nTilesX + tx);
+				var tileInterior = new ArrayList<PotentialNucleus>();
+				var tileSeam = new ArrayList<PotentialNucleus>();
+				for (var nucleus : StarDist2D.filterNuclei(tileNuclei, Collections.emptySet(), method, 0.4)) {
+					if (bounds.covers(nucleus.getEnvelope()))
+						tileInterior.add(nucleus);
+					else
+						tileSeam.add(nucleus);
+				}
+				interior.add(tileInterior);
+				seam.add(tileSeam);
+			}
+		}
+		return List.of(interior, seam);
+	}
+
+	private static void checkSeams(OverlapMethod method, int n) {
+		long seed = 43;
+		double tileSize = 100;
+		int nTilesX = 3;
+		int nTilesY = 2;
+
+		// Resolve overlaps for all nuclei together, in tile order
+		var nuclei = createNuclei(seed, n, tileSize * nTilesX, tileSize * nTilesY);
+		var tiles = createTiles(nuclei, tileSize, nTilesX, nTilesY, method);
+		var allNuclei = new ArrayList<PotentialNucleus>();
+		for (int t = 0; t < tiles.get(0).size(); t++) {
+			allNuclei.addAll(tiles.get(0).get(t));
+			allNuclei.addAll(tiles.get(1).get(t));
+		}
+		int nSeam = tiles.get(1).stream().mapToInt(List::size).sum();
+		// Nuclei have already been trimmed within tiles, so negligible overlaps are ignored when resolving them again
+		var expected = StarDist2D.filterNuclei(allNuclei, Collections.emptySet(), method, 0.4, true);
+
+		// Resolve overlaps using the seams only
+		var nuclei2 = createNuclei(seed, n, tileSize * nTilesX, tileSize * nTilesY);
+		var tiles2 = createTiles(nuclei2, tileSize, nTilesX, nTilesY, method);
+		var actual = StarDist2D.resolveTileOverlaps(tiles2.get(0), tiles2.get(1), method, 0.4);
+
+		// Check we have a reasonable test, with many seam nuclei and some removed
+		assertTrue(nSeam > 50);
+		assertTrue(expected.size() < allNuclei.size());
+
+		// Should match exactly, including the order
+		assertEquals(indicesOf(nuclei, expected), indicesOf(nuclei2, actual));
+		if (method == OverlapMethod.GEOMETRY) {
+			// Trimming nuclei in a different order can move a vertex by the precision of the coordinates, 
+			// so only require the geometries to be the same up to a negligible overlap
+			for (int i = 0; i < expected.size(); i++) {
+				var geom = expected.get(i).getGeometry();
+				var geom2 = actual.get(i).getGeometry();
+				assertTrue(geom.symDifference(geom2).getArea() < geom.getArea() * 1e-3);
+			}
+		}
+	}
+
+	@Test
+	public void test_negligibleOverlaps() {
+		// Two regular nuclei whose tips overlap very slightly
+		var nuclei = List.of(createNucleus(50, 50, 10, 0.9), createNucleus(69.9, 50, 10, 0.8));
+		var second = nuclei.get(1);
+		double fullArea = second.getGeometry().getArea();
+
+		// By default, even a negligible overlap is removed
+		var retained = StarDist2D.filterNuclei(nuclei, Collections.emptySet(), OverlapMethod.GEOMETRY, 0.4);
+		assertEquals(nuclei, retained);
+		double trimmedArea = second.getGeometry().getArea();
+		assertTrue(trimmedArea < fullArea);
+		assertTrue(fullArea - trimmedArea < fullArea * 1e-3);
+
+		// When resolving again, the trimmed nucleus isn't changed by any remaining rounding error
+		var trimmed = second.getGeometry();
+		retained = StarDist2D.filterNuclei(nuclei, Collections.emptySet(), OverlapMethod.GEOMETRY, 0.4, true);
+		assertEquals(nuclei, retained);
+		assertTrue(trimmed == second.getGeometry());
+	}
+
+	/**
+	 * Create a regular nucleus with the specified center and probability.
+	 */
+	private static PotentialNucleus createNucleus(double x, double y, double radius, double prob) {
+		var rays = new float[N_RAYS];
+		Arrays.fill(rays, (float)radius);
+		var envelope = new Envelope(x - radius, x + radius, y - radius, y + radius);
+		return new PotentialNucleus(StarConvexPolygons.getInstance(N_RAYS), x, y, rays, 1.0, envelope, prob, -1);
+	}
+
+	private static void checkOwnershipDuplicates(OverlapMethod method) {
+		// Two adjacent tiles, where the padded regions of both contain the same nucleus close to the boundary at x = 100 - 
+		// but the predictions differ, so each tile prefers a version centered on its own side
+		var tileLeft = new Envelope(0, 100, 0, 100);
+		var tileRight = new Envelope(100, 200, 0, 100);
+		var left = List.of(
+				createNucleus(99.5, 50, 8, 0.9),
+				createNucleus(100.5, 50, 8, 0.8),
+				createNucleus(80, 20, 5, 0.7));
+		var right = List.of(
+				createNucleus(99.5, 50, 8, 0.8),
+				createNucleus(100.5, 50, 8, 0.9),
+				createNucleus(120, 80, 5, 0.7));
+
+		var interior = new ArrayList<List<PotentialNucleus>>();
+		var seam = new ArrayList<List<PotentialNucleus>>();
+		int nOwned = 0;
+		for (var tile : List.of(tileLeft, tileRight)) {
+			var candidates = tile == tileLeft ? left : right;
+			// Resolve overlaps using everything in the padded tile, then keep only the nuclei centered in the tile
+			var filtered = StarDist2D.filterNuclei(new ArrayList<>(candidates), Collections.emptySet(), method, 0.4);
+			var owned = StarDist2D.retainOwnedNuclei(filtered, tile.getMinX(), tile.getMinY(), tile.getMaxX(), tile.getMaxY());
+			nOwned += owned.size();
+			var tileInterior = new ArrayList<PotentialNucleus>();
+			var tileSeam = new ArrayList<PotentialNucleus>();
+			for (var nucleus : owned) {
+				if (tile.covers(nucleus.getEnvelope()))
+					tileInterior.add(nucleus);
+				else
+					tileSeam.add(nucleus);
+			}
+			interior.add(tileInterior);
+			seam.add(tileSeam);
+		}
+		// Both tiles keep their own version of the nucleus at the boundary
+		assertEquals(4, nOwned);
+
+		var retained = StarDist2D.resolveTileOverlaps(interior, seam, method, 0.4);
+		assertEquals(3, retained.size());
+		long nBoundary = retained.stream()
+				.filter(n -> Math.abs(n.getEnvelope().centre().x - 100) < 2)
+				.count();
+		assertEquals(1, nBoundary);
+	}
+
+	@Test
+	public void test_ownershipDuplicatesRays() {
+		checkOwnershipDuplicates(OverlapMethod.RAYS);
+	}
+
+	@Test
+	public void test_ownershipDuplicatesRaster() {
+		checkOwnershipDuplicates(OverlapMethod.RASTER);
+	}
+
+	@Test
+	public void test_ownershipDuplicatesGeometry() {
+		checkOwnershipDuplicates(OverlapMethod.GEOMETRY);
+	}
+
+	@Test
+	public void test_seamsRays() {
+		checkSeams(OverlapMethod.RAYS, 3000);
+	}
+
+	@Test
+	public void test_seamsRaster() {
+		checkSeams(OverlapMethod.RASTER, 3000);
+	}
+
+	@Test
+	public void test_seamsGeometry() {
+		checkSeams(OverlapMethod.GEOMETRY, 2000);
+	}
+
+	@Test
+	public void test_partitionedRays() {
+		// Many partitions, with many nuclei lying across partition boundaries
+		checkPartitioned(OverlapMethod.RAYS, 20_000, 1000);
+	}
+
+	@Test
+	public void test_partitionedRaster() {
+		checkPartitioned(OverlapMethod.RASTER, 20_000, 1000);
+	}
+
+	@Test
+	public void test_partitionedGeometry() {
+		checkPartitioned(OverlapMethod.GEOMETRY, 3_000, 500);
+	}
+
+}
@@ -0,0 +1,86 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ModelFileIndexTest {
+
+	private static void deleteAll(Path root) throws IOException {
+		try (var stream = Files.walk(root)) {
+			for (var p : stream.sorted(Comparator.reverseOrder()).toList())
+				Files.delete(p);
+		}
+	}
+
+	@Test
+	public void test_preferredDirectory() throws Exception {
+		var root = Files.createTempDirectory("index");
+		try {
+			var other = Files.createFile(Files.createDirectory(root.resolve("other")).resolve("model.pb"));
+			var preferred = Files.createFile(Files.createDirectory(root.resolve("stardist")).resolve("model.pb"));
+			assertEquals(List.of(preferred, other), ModelFileIndex.findFiles(root, "model.pb"));
+		} finally {
+			deleteAll(root);
+		}
+	}
+
+	@Test
+	public void test_missingNameIsCached() throws Exception {
+		var root = Files.createTempDirectory("index");
+		try {
+			// Changes within this directory aren't watched
+			var other = Files.createDirectory(root.resolve("other"));
+			assertTrue(ModelFileIndex.findFiles(root, "model.pb").isEmpty());
+
+			// The missing name shouldn't trigger another rebuild, so the new file isn't found
+			var file = Files.createFile(other.resolve("model.pb"));
+			assertTrue(ModelFileIndex.findFiles(root, "model.pb").isEmpty());
+
+			// Modifying a watched directory should cause the index to be rebuilt
+			assertTrue(root.toFile().setLastModified(root.toFile().lastModified() + 10_000));
+			assertEquals(List.of(file), ModelFileIndex.findFiles(root, "model.pb"));
+		} finally {
+			deleteAll(root);
+		}
+	}
+
+	@Test
+	public void test_missingNameRebuildsOnce() throws Exception {
+		var root = Files.createTempDirectory("index");
+		try {
+			var other = Files.createDirectory(root.resolve("other"));
+			assertTrue(ModelFileIndex.findFiles(root, "first.pb").isEmpty());
+
+			// A different name is searched for again, so files added elsewhere can still be found
+			var file = Files.createFile(other.resolve("second.pb"));
+			assertEquals(List.of(file), ModelFileIndex.findFiles(root, "second.pb"));
+		} finally {
+			deleteAll(root);
+		}
+	}
+
+}
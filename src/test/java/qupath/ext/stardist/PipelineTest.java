@@ -0,0 +1,292 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+public class PipelineTest {
+
+	/**
+	 * Item that may hold a resource, so that we can check nothing is leaked.
+	 */
+	private static class Item {
+
+		private final int value;
+		private final AtomicInteger open;
+		private final AtomicBoolean acquired = new AtomicBoolean(false);
+
+		Item(int value, AtomicInteger open) {
+			this.value = value;
+			this.open = open;
+		}
+
+		Item acquire() {
+			if (!acquired.getAndSet(true))
+				open.incrementAndGet();
+			return this;
+		}
+
+		void release() {
+			if (acquired.getAndSet(false))
+				open.decrementAndGet();
+		}
+
+	}
+
+	private static List<Item> createItems(int n, AtomicInteger open) {
+		return IntStream.range(0, n).mapToObj(i -> new Item(i, open)).toList();
+	}
+
+	private static void sleepRandom(Random rng) {
+		try {
+			Thread.sleep(rng.nextInt(3));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void test_orderWithMultipleThreads() throws Exception {
+		var open = new AtomicInteger();
+		var items = createItems(200, open);
+		var rng = new Random(1);
+		var pipeline = new Pipeline<Item>("test", Item::release)
+				.addStage("first", 4, -1, i -> {
+					sleepRandom(rng);
+					return i.acquire();
+				})
+				.addStage("second", 3, 2, i -> {
+					sleepRandom(rng);
+					return i;
+				})
+				.addStage("third", 5, -1, i -> {
+					i.release();
+					return i;
+				});
+		var results = pipeline.process(items);
+		assertEquals(items, results);
+		assertEquals(0, open.get());
+	}
+
+	@Test
+	public void test_batches() throws Exception {
+		var open = new AtomicInteger();
+		var items = createItems(103, open);
+		var batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+		var pipeline = new Pipeline<Item>("test", Item::release)
+				.addStage("read", 2, -1, i -> i)
+				.addBatchStage("batch", 2, 8, -1, b -> {
+					batchSizes.add(b.size());
+					// Drop items that are multiples of 10
+					return b.stream().map(i -> i.value % 10 == 0 ? null : i).toList();
+				});
+		var results = pipeline.process(items);
+
+		assertEquals(items.size(), batchSizes.stream().mapToInt(i -> i).sum());
+		assertTrue(batchSizes.stream().allMatch(s -> s >= 1 && s <= 8));
+		var expected = items.stream().filter(i -> i.value % 10 != 0).toList();
+		assertEquals(expected, results);
+	}
+
+	@Test
+	public void test_batchWrongSize() {
+		var open = new AtomicInteger();
+		var items = createItems(10, open);
+		var pipeline = new Pipeline<Item>("test", Item::release)
+				.addStage("acquire", 1, -1, i -> i.acquire())
+				.addBatchStage("batch", 1, 4, -1, b -> b.subList(0, 1));
+		var e = assertThrows(RuntimeException.class, () -> pipeline.process(items));
+		assertInstanceOf(IllegalStateException.class, e.getCause());
+		assertEquals(0, open.get());
+	}
+
+	@Test
+	public void test_exceptionInLaterStage() {
+		var open = new AtomicInteger();
+		var items = createItems(500, open);
+		var nProcessed = new AtomicInteger();
+		var pipeline = new Pipeline<Item>("test", Item::release)
+				.addStage("acquire", 3, -1, i -> i.acquire())
+				.addBatchStage("predict", 2, 4, -1, b -> {
+					for (var i : b) {
+						if (i.value == 50)
+							throw new UnsupportedOperationException("Failed on item " + i.value);
+					}
+					return b;
+				})
+				.addStage("decode", 2, -1, i -> {
+					nProcessed.incrementAndGet();
+					i.release();
+					return i;
+				});
+		var e = assertThrows(RuntimeException.class, () -> pipeline.process(items));
+		assertInstanceOf(UnsupportedOperationException.class, e.getCause());
+		assertTrue(nProcessed.get() < items.size());
+		// Everything that was acquired must have been released, either normally or when discarded
+		assertEquals(0, open.get());
+	}
+
+	@Test
+	public void test_exceptionInFirstStage() {
+		var open = new AtomicInteger();
+		var items = createItems(1000, open);
+		var nLater = new AtomicInteger();
+		var pipeline = new Pipeline<Item>("test", Item::release)
+				.addStage("read", 2, -1, i -> {
+					if (i.value == 0)
+						throw new IllegalArgumentException("Can't read");
+					return i.acquire();
+				})
+				.addStage("decode", 1, -1, i -> {
+					nLater.incrementAndGet();
+					return i;
+				});
+		var e = assertThrows(RuntimeException.class, () -> pipeline.process(items));
+		assertInstanceOf(IllegalArgumentException.class, e.getCause());
+		assertTrue(nLater.get() < items.size());
+		assertEquals(0, open.get());
+	}
+
+	@Test
+	public void test_inline() throws Exception {
+		var open = new AtomicInteger();
+		var items = createItems(103, open);
+		var caller = Thread.currentThread();
+		var otherThreads = new AtomicInteger();
+		var batchSizes = new ArrayList<Integer>();
+		var pipeline = new Pipeline<Item>("test", Item::release)
+				.addStage("read", 4, -1, i -> {
+					if (Thread.currentThread() != caller)
+						otherThreads.incrementAndGet();
+					return i.acquire();
+				})
+				.addBatchStage("batch", 2, 8, -1, b -> {
+					batchSizes.add(b.size());
+					return b.stream().map(i -> i.value % 10 == 0 ? null : i).toList();
+				})
+				.addStage("decode", 3, -1, i -> {
+					i.release();
+					return i;
+				});
+		var results = pipeline.processInline(items);
+
+		assertEquals(0, otherThreads.get());
+		// Items dropped by a stage are its own responsibility, so release them here
+		items.stream().filter(i -> i.value % 10 == 0).forEach(Item::release);
+		assertEquals(0, open.get());
+		assertEquals(items.size(), batchSizes.stream().mapToInt(i -> i).sum());
+		assertTrue(batchSizes.stream().allMatch(s -> s >= 1 && s <= 8));
+		var expected = items.stream().filter(i -> i.value % 10 != 0).toList();
+		assertEquals(expected, results);
+	}
+
+	@Test
+	public void test_inlineException() {
+		var open = new AtomicInteger();
+		var items = createItems(100, open);
+		var nProcessed = new AtomicInteger();
+		var pipeline = new Pipeline<Item>("test", Item::release)
+				.addStage("acquire", 2, -1, i -> i.acquire())
+				.addBatchStage("predict", 1, 4, -1, b -> {
+					for (var i : b) {
+						if (i.value == 50)
+							throw new UnsupportedOperationException("Failed on item " + i.value);
+					}
+					return b;
+				})
+				.addStage("decode", 1, -1, i -> {
+					nProcessed.incrementAndGet();
+					return i;
+				});
+		var e = assertThrows(RuntimeException.class, () -> pipeline.processInline(items));
+		assertInstanceOf(UnsupportedOperationException.class, e.getCause());
+		assertEquals(48, nProcessed.get());
+		// Items returned before the failure are discarded, as well as the ones being processed
+		assertEquals(0, open.get());
+	}
+
+	@Test
+	public void test_inlineBatchWrongSize() {
+		var open = new AtomicInteger();
+		var items = createItems(10, open);
+		var pipeline = new Pipeline<Item>("test", Item::release)
+				.addStage("acquire", 1, -1, i -> i.acquire())
+				.addBatchStage("batch", 1, 4, -1, b -> b.subList(0, 1));
+		var e = assertThrows(RuntimeException.class, () -> pipeline.processInline(items));
+		assertInstanceOf(IllegalStateException.class, e.getCause());
+		assertEquals(0, open.get());
+	}
+
+	@Test
+	public void test_interruptWaitsForWorkers() throws Exception {
+		var open = new AtomicInteger();
+		var items = createItems(100, open);
+		var active = new AtomicInteger();
+		var started = new CountDownLatch(1);
+		var pipeline = new Pipeline<Item>("test", Item::release)
+				.addStage("read", 2, -1, i -> i.acquire())
+				.addStage("predict", 2, -1, i -> {
+					active.incrementAndGet();
+					started.countDown();
+					// Simulate a call that doesn't respond to interrupts
+					long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+					while (System.nanoTime() < end)
+						Thread.onSpinWait();
+					active.decrementAndGet();
+					return i;
+				});
+
+		var thrown = new AtomicReference<Throwable>();
+		var activeOnReturn = new AtomicInteger(-1);
+		var thread = new Thread(() -> {
+			try {
+				pipeline.process(items);
+			} catch (Throwable e) {
+				thrown.set(e);
+			} finally {
+				activeOnReturn.set(active.get());
+			}
+		});
+		thread.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		thread.interrupt();
+		thread.join(10_000);
+
+		assertFalse(thread.isAlive());
+		assertInstanceOf(InterruptedException.class, thrown.get());
+		assertEquals(0, activeOnReturn.get());
+		assertEquals(0, open.get());
+	}
+
+}
@@ -0,0 +1,182 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.algorithm.locate.SimplePointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+
+public class RasterizedMaskTest {
+
+	private static final GeometryFactory factory = new GeometryFactory(new PrecisionModel());
+
+	private static Coordinate[] ring(double... xy) {
+		var coords = new Coordinate[xy.length / 2 + 1];
+		for (int i = 0; i < xy.length / 2; i++)
+			coords[i] = new Coordinate(xy[i*2], xy[i*2+1]);
+		coords[coords.length - 1] = coords[0];
+		return coords;
+	}
+
+	/**
+	 * Create a concave star-shaped polygon.
+	 */
+	private static Geometry createStar(double cx, double cy, double r1, double r2, int nPoints) {
+		var xy = new double[nPoints * 4];
+		for (int i = 0; i < nPoints * 2; i++) {
+			double r = i % 2 == 0 ? r1 : r2;
+			double theta = Math.PI * i / nPoints;
+			xy[i*2] = cx + r * Math.cos(theta);
+			xy[i*2+1] = cy + r * Math.sin(theta);
+		}
+		return factory.createPolygon(ring(xy));
+	}
+
+	/**
+	 * Check that the mask gives the same result as the exact locator, for random points (including outside the grid), 
+	 * cell corners, and the vertices of the mask.
+	 */
+	private static void checkMask(Geometry mask, double originX, double originY, double cellWidth, double cellHeight, int width, int height) {
+		var rasterized = new RasterizedMask(mask, originX, originY, cellWidth, cellHeight, width, height);
+		var locator = new SimplePointInAreaLocator(mask);
+
+		var coords = new ArrayList<Coordinate>();
+		var rng = new Random(1);
+		double gridWidth = cellWidth * width;
+		double gridHeight = cellHeight * height;
+		for (int i = 0; i < 20_000; i++) {
+			coords.add(new Coordinate(
+					originX - gridWidth * 0.25 + rng.nextDouble() * gridWidth * 1.5,
+					originY - gridHeight * 0.25 + rng.nextDouble() * gridHeight * 1.5));
+		}
+		for (int y = -1; y <= height + 1; y++) {
+			for (int x = -1; x <= width + 1; x++)
+				coords.add(new Coordinate(originX + x * cellWidth, originY + y * cellHeight));
+		}
+		for (var c : mask.getCoordinates())
+			coords.add(c);
+
+		int nInside = 0;
+		for (var c : coords) {
+			boolean expected = locator.locate(c) != Location.EXTERIOR;
+			assertEquals(expected, rasterized.contains(c), "Point " + c);
+			if (expected)
+				nInside++;
+		}
+		// Check the test was meaningful
+		assertTrue(nInside > 100);
+		assertTrue(nInside < coords.size() - 100);
+	}
+
+	@Test
+	public void test_concave() {
+		var mask = createStar(50, 40, 45, 12, 7);
+		checkMask(mask, 0, 0, 1, 1, 100, 80);
+		// Cells larger than features of the mask, and a grid offset from the origin
+		checkMask(mask, -3.3, 2.7, 2.5, 1.5, 40, 50);
+	}
+
+	@Test
+	public void test_holes() {
+		var shell = factory.createLinearRing(ring(10, 10, 190, 10, 190, 90, 10, 90));
+		var hole1 = factory.createLinearRing(ring(30, 30, 60, 30, 60, 70, 30, 70));
+		var hole2 = factory.createLinearRing(((Polygon)createStar(130, 50, 30, 10, 5)).getExteriorRing().getCoordinates());
+		var mask = factory.createPolygon(shell, new LinearRing[] {hole1, hole2});
+		checkMask(mask, 0, 0, 1, 1, 200, 100);
+		checkMask(mask, 5.5, 5.5, 2, 2, 90, 45);
+	}
+
+	@Test
+	public void test_multipolygon() {
+		var mask = factory.createMultiPolygon(new Polygon[] {
+				(Polygon)createStar(30, 30, 25, 8, 6),
+				(Polygon)createStar(80, 60, 15, 10, 9)
+		});
+		checkMask(mask, 0, 0, 1, 1, 100, 100);
+	}
+
+	@Test
+	public void test_rectangle() {
+		var mask = factory.toGeometry(new Envelope(10.5, 70.25, -20, 30));
+		checkMask(mask, 0, -25, 1, 1, 80, 60);
+	}
+
+	@Test
+	public void test_spikes() {
+		// Very sharp vertices (well below the default miter limit), pointing in different directions
+		// and ending at different positions within a cell
+		var rng = new Random(3);
+		for (int i = 0; i < 20; i++) {
+			double theta = rng.nextDouble() * 2 * Math.PI;
+			double tipX = 50 + rng.nextDouble();
+			double tipY = 50 + rng.nextDouble();
+			double length = 25;
+			double halfWidth = 0.3 + rng.nextDouble() * 0.6;
+			double dx = Math.cos(theta), dy = Math.sin(theta);
+			double baseX = tipX - dx * length, baseY = tipY - dy * length;
+			// Attach the spike to a wider body so the mask isn't negligibly small
+			double backX = baseX - dx * 15, backY = baseY - dy * 15;
+			var mask = factory.createPolygon(ring(
+					baseX - dy * halfWidth, baseY + dx * halfWidth,
+					tipX, tipY,
+					baseX + dy * halfWidth, baseY - dx * halfWidth,
+					backX + dy * 12, backY - dx * 12,
+					backX - dy * 12, backY + dx * 12));
+			checkMask(mask, 0, 0, 1, 1, 100, 100);
+			checkSpikeTip(mask, tipX, tipY);
+		}
+	}
+
+	/**
+	 * Check points densely sampled around the tip of a spike, which are easily missed by random sampling.
+	 */
+	private static void checkSpikeTip(Geometry mask, double x, double y) {
+		var rasterized = new RasterizedMask(mask, 0, 0, 1, 1, 100, 100);
+		var locator = new SimplePointInAreaLocator(mask);
+		for (int i = -40; i <= 40; i++) {
+			for (int j = -40; j <= 40; j++) {
+				var c = new Coordinate(x + i * 0.05, y + j * 0.05);
+				assertEquals(locator.locate(c) != Location.EXTERIOR, rasterized.contains(c), "Point " + c);
+			}
+		}
+	}
+
+	@Test
+	public void test_maskExtendsBeyondGrid() {
+		// Only part of the mask is covered by the grid, so points outside must use the exact test
+		var mask = createStar(0, 0, 100, 40, 5);
+		checkMask(mask, 20, -20, 1, 1, 60, 40);
+		var rasterized = new RasterizedMask(mask, 20, -20, 1, 1, 60, 40);
+		assertTrue(rasterized.contains(new Coordinate(0, 0)));
+		assertFalse(rasterized.contains(new Coordinate(-90, -90)));
+	}
+
+}
@@ -0,0 +1,87 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class SparseBitmapTest {
+
+	@Test
+	public void test_chunkBorders() {
+		// Coordinates either side of chunk boundaries, including around zero
+		var values = List.of(-129, -128, -127, -65, -64, -63, -2, -1, 0, 1, 62, 63, 64, 65, 127, 128,
+				Integer.MIN_VALUE, Integer.MIN_VALUE + 1, Integer.MAX_VALUE - 1, Integer.MAX_VALUE);
+		var bitmap = new SparseBitmap();
+		var expected = new HashSet<List<Integer>>();
+		var rng = new Random(1);
+		for (int x : values) {
+			for (int y : values) {
+				if (rng.nextBoolean()) {
+					bitmap.set(x, y);
+					expected.add(List.of(x, y));
+				}
+			}
+		}
+		for (int x : values) {
+			for (int y : values)
+				assertEquals(expected.contains(List.of(x, y)), bitmap.get(x, y), "Pixel " + x + ", " + y);
+		}
+	}
+
+	@Test
+	public void test_random() {
+		var rng = new Random(2);
+		var bitmap = new SparseBitmap();
+		var expected = new HashSet<List<Integer>>();
+		for (int i = 0; i < 20_000; i++) {
+			int x = rng.nextInt(1000) - 500;
+			int y = rng.nextInt(1000) - 500;
+			// Interleave gets and sets, since the most recent chunk is cached
+			assertEquals(expected.contains(List.of(x, y)), bitmap.get(x, y));
+			bitmap.set(x, y);
+			expected.add(List.of(x, y));
+			assertTrue(bitmap.get(x, y));
+		}
+		for (int y = -510; y < 510; y++) {
+			for (int x = -510; x < 510; x++)
+				assertEquals(expected.contains(List.of(x, y)), bitmap.get(x, y));
+		}
+	}
+
+	@Test
+	public void test_setTwice() {
+		var bitmap = new SparseBitmap();
+		assertFalse(bitmap.get(-1, -1));
+		bitmap.set(-1, -1);
+		bitmap.set(-1, -1);
+		assertTrue(bitmap.get(-1, -1));
+		// Same bit position in neighboring chunks
+		assertFalse(bitmap.get(63, -1));
+		assertFalse(bitmap.get(-1, 63));
+		assertFalse(bitmap.get(-65, -1));
+		assertFalse(bitmap.get(-1, -65));
+	}
+
+}
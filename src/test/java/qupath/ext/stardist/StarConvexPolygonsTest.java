@@ -0,0 +1,215 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.stardist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+
+public class StarConvexPolygonsTest {
+
+	private static final GeometryFactory factory = new GeometryFactory(new PrecisionModel());
+
+	/**
+	 * Create random rays, sometimes with very irregular (but still star-convex) shapes.
+	 */
+	private static float[] randomRays(Random rng, int nRays, double radius) {
+		var rays = new float[nRays];
+		boolean irregular = rng.nextBoolean();
+		for (int a = 0; a < nRays; a++) {
+			double scale = irregular ? 0.1 + rng.nextDouble() * 1.9 : 0.7 + rng.nextDouble() * 0.6;
+			rays[a] = (float)(radius * scale);
+		}
+		return rays;
+	}
+
+	private static Polygon createPolygon(StarConvexPolygons shape, double x, double y, float[] rays, double scale) {
+		var xs = new double[rays.length + 1];
+		var ys = new double[rays.length + 1];
+		int n = shape.computeVertices(x, y, rays, scale, factory.getPrecisionModel(), xs, ys);
+		return StarConvexPolygons.createPolygon(factory, xs, ys, n);
+	}
+
+	/**
+	 * Straightforward version of {@link StarConvexPolygons#computeVertices(double, double, float[], double, PrecisionModel, double[], double[])}, 
+	 * which makes each vertex precise as soon as it is computed.
+	 */
+	private static int computeVerticesSimple(int nRays, double x, double y, float[] rays, double scale, PrecisionModel precisionModel, double[] xs, double[] ys) {
+		int n = 0;
+		for (int a = 0; a < nRays; a++) {
+			double val = rays[a];
+			if (!Double.isFinite(val))
+				continue;
+			val = Math.max(1e-3, val) * scale;
+			double theta = 2 * Math.PI / nRays * a;
+			double xx = precisionModel.makePrecise(x + val * Math.cos(theta));
+			double yy = precisionModel.makePrecise(y + val * Math.sin(theta));
+			if (n == 0 || xx != xs[n-1] || yy != ys[n-1]) {
+				xs[n] = xx;
+				ys[n] = yy;
+				n++;
+			}
+		}
+		if (n >= 3 && (xs[0] != xs[n-1] || ys[0] != ys[n-1])) {
+			xs[n] = xs[0];
+			ys[n] = ys[0];
+			n++;
+		}
+		return n;
+	}
+
+	@Test
+	public void test_computeVertices() {
+		var rng = new Random(4);
+		for (var precisionModel : List.of(new PrecisionModel(), new PrecisionModel(100), new PrecisionModel(1))) {
+			for (int nRays : List.of(8, 32, 64)) {
+				var shape = StarConvexPolygons.getInstance(nRays);
+				var xs = new double[nRays + 1];
+				var ys = new double[nRays + 1];
+				var xsExpected = new double[nRays + 1];
+				var ysExpected = new double[nRays + 1];
+				for (int i = 0; i < 200; i++) {
+					var rays = randomRays(rng, nRays, 0.5 + rng.nextDouble() * 20);
+					// Include non-finite and very short rays, which can give skipped or duplicate vertices
+					for (int a = 0; a < nRays; a++) {
+						double p = rng.nextDouble();
+						if (p < 0.05)
+							rays[a] = Float.NaN;
+						else if (p < 0.1)
+							rays[a] = rng.nextBoolean() ? 0f : -1f;
+						else if (p < 0.12)
+							rays[a] = Float.POSITIVE_INFINITY;
+					}
+					double x = rng.nextDouble() * 100;
+					double y = rng.nextDouble() * 100;
+					double scale = rng.nextBoolean() ? 1.0 : 2.0;
+					int expected = computeVerticesSimple(nRays, x, y, rays, scale, precisionModel, xsExpected, ysExpected);
+					int n = shape.computeVertices(x, y, rays, scale, precisionModel, xs, ys);
+					assertEquals(expected, n);
+					assertArrayEquals(Arrays.copyOf(xsExpected, n), Arrays.copyOf(xs, n), 1e-12);
+					assertArrayEquals(Arrays.copyOf(ysExpected, n), Arrays.copyOf(ys, n), 1e-12);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void test_area() {
+		var rng = new Random(1);
+		for (int nRays : List.of(8, 32, 64)) {
+			var shape = StarConvexPolygons.getInstance(nRays);
+			for (int i = 0; i < 200; i++) {
+				double scale = rng.nextBoolean() ? 1.0 : 2.0;
+				var rays = randomRays(rng, nRays, 1 + rng.nextDouble() * 20);
+				var polygon = createPolygon(shape, rng.nextDouble() * 100, rng.nextDouble() * 100, rays, scale);
+				double expected = polygon.getArea();
+				assertEquals(expected, shape.area(rays, scale), expected * 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void test_iou() {
+		var rng = new Random(2);
+		int nNonZero = 0;
+		for (int nRays : List.of(8, 32, 64)) {
+			var shape = StarConvexPolygons.getInstance(nRays);
+			for (int i = 0; i < 500; i++) {
+				double scale = rng.nextBoolean() ? 1.0 : 2.0;
+				double radius = 2 + rng.nextDouble() * 10;
+				double x1 = rng.nextDouble() * 10;
+				double y1 = rng.nextDouble() * 10;
+				// Second polygon is nearby, so that we have a range of overlaps
+				double x2 = x1 + (rng.nextDouble() - 0.5) * radius * scale * 3;
+				double y2 = y1 + (rng.nextDouble() - 0.5) * radius * scale * 3;
+				var rays1 = randomRays(rng, nRays, radius);
+				var rays2 = randomRays(rng, nRays, radius * (0.5 + rng.nextDouble()));
+				// Include identical shapes sometimes
+				if (i % 50 == 0) {
+					x2 = x1;
+					y2 = y1;
+					rays2 = rays1.clone();
+				}
+				var p1 = createPolygon(shape, x1, y1, rays1, scale);
+				var p2 = createPolygon(shape, x2, y2, rays2, scale);
+				double intersection = p1.intersection(p2).getArea();
+				double expected = intersection / (p1.getArea() + p2.getArea() - intersection);
+
+				double area1 = shape.area(rays1, scale);
+				double area2 = shape.area(rays2, scale);
+				double iou = shape.iou(x1, y1, rays1, area1, x2, y2, rays2, area2, scale);
+				assertEquals(expected, iou, 1e-9);
+				// Should be symmetric
+				assertEquals(iou, shape.iou(x2, y2, rays2, area2, x1, y1, rays1, area1, scale), 1e-9);
+				if (expected > 0)
+					nNonZero++;
+			}
+		}
+		assertTrue(nNonZero > 500);
+	}
+
+	@Test
+	public void test_rasterize() {
+		var rng = new Random(3);
+		var shape = StarConvexPolygons.getInstance(32);
+		var xs = new double[33];
+		var ys = new double[33];
+		var crossings = new double[33];
+		for (int i = 0; i < 200; i++) {
+			double pixelSize = rng.nextBoolean() ? 1.0 : 2.0;
+			// Include negative coordinates, and very small polygons that might not contain any pixel centers
+			double x = (rng.nextDouble() - 0.5) * 200;
+			double y = (rng.nextDouble() - 0.5) * 200;
+			var rays = randomRays(rng, 32, i % 10 == 0 ? rng.nextDouble() : 1 + rng.nextDouble() * 15);
+			int n = shape.computeVertices(x, y, rays, pixelSize, factory.getPrecisionModel(), xs, ys);
+			var polygon = StarConvexPolygons.createPolygon(factory, xs, ys, n);
+
+			var visited = new HashSet<List<Integer>>();
+			int count = StarConvexPolygons.rasterize(xs, ys, n, pixelSize, crossings, (px, py) -> {
+				assertTrue(visited.add(List.of(px, py)), "Pixel visited more than once");
+			});
+			assertEquals(visited.size(), count);
+
+			// Check all pixels with centers in the bounding box (plus a margin)
+			var locator = new IndexedPointInAreaLocator(polygon);
+			var env = polygon.getEnvelopeInternal();
+			var expected = new HashSet<List<Integer>>();
+			for (int py = (int)Math.floor(env.getMinY() / pixelSize) - 1; py <= (int)Math.ceil(env.getMaxY() / pixelSize) + 1; py++) {
+				for (int px = (int)Math.floor(env.getMinX() / pixelSize) - 1; px <= (int)Math.ceil(env.getMaxX() / pixelSize) + 1; px++) {
+					var c = new Coordinate((px + 0.5) * pixelSize, (py + 0.5) * pixelSize);
+					if (locator.locate(c) == Location.INTERIOR)
+						expected.add(List.of(px, py));
+				}
+			}
+			assertEquals(expected, visited);
+		}
+	}
+
+}